@@ -0,0 +1,490 @@
+package excel;
+
+import com.google.common.collect.Lists;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * 导出计划：class中带@ExcelField的属性按order排好序的列，每个class只生成一次（ClassValue缓存）
+ * <p>
+ * 格式化器按class单例，读取属性使用MethodHandle，基本类型按long/float/double/boolean读取，不装箱，写数据时不再使用反射
+ * </p>
+ * <p>
+ * 没有格式化器的数字、布尔、日期类型的列写为对应类型的单元格，其余写为文本；
+ * Excel数字只有15位有效数字，超过的整数（如长id）及BigDecimal按文本写入，避免丢失精度
+ * </p>
+ */
+final class ExcelExportPlan {
+    /**
+     * Excel能精确表示的最大整数（15位）
+     */
+    private static final long MAX_EXACT_NUMBER = 999_999_999_999_999L;
+    private static final BigInteger MAX_EXACT_BIG_INTEGER = BigInteger.valueOf(MAX_EXACT_NUMBER);
+    /**
+     * double能精确表示的10的最大幂
+     */
+    private static final int MAX_EXACT_POWER = 22;
+    private static final double[] POWERS_OF_TEN = new double[MAX_EXACT_POWER + 1];
+    private static final int MAX_EXACT_PRECISION = 15;
+    private static final String DEFAULT_LOCAL_DATE_PATTERN = "yyyy-MM-dd";
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i <= MAX_EXACT_POWER; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private static final ClassValue<ExcelExportPlan> PLANS = new ClassValue<ExcelExportPlan>() {
+        @Override
+        protected ExcelExportPlan computeValue(Class<?> type) {
+            return new ExcelExportPlan(type);
+        }
+    };
+    /**
+     * 格式化器class -> 实例，格式化器需无状态
+     */
+    private static final ClassValue<ExcelColumnFormatter> FORMATTERS = new ClassValue<ExcelColumnFormatter>() {
+        @Override
+        protected ExcelColumnFormatter computeValue(Class<?> type) {
+            try {
+                return (ExcelColumnFormatter) type.getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalArgumentException("can't create formatter " + type.getName(), e);
+            }
+        }
+    };
+
+    private final List<Column> columns;
+
+    private ExcelExportPlan(Class<?> clz) {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        this.columns = Collections.unmodifiableList(getAllFields(clz).stream()
+                .filter(f -> f.getAnnotation(ExcelField.class) != null)
+                .map(f -> Column.create(lookup, f))
+                .sorted(Comparator.comparingInt(Column::getOrder))
+                .collect(Collectors.toList()));
+    }
+
+    static ExcelExportPlan of(Class<?> clz) {
+        return PLANS.get(clz);
+    }
+
+    List<Column> getColumns() {
+        return columns;
+    }
+
+    private static <T> List<Field> getAllFields(Class<T> clz) {
+        List<Field> fields = Lists.newArrayList();
+        Class<?> tmpClz = clz;
+        // 不获取Object层的属性
+        String finalParent = "java.lang.object";
+        while (tmpClz != null && !tmpClz.getName().toLowerCase().equals(finalParent)) {
+            // 只获取bean普通属性
+            for (Field field : tmpClz.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (modifiers == Modifier.PUBLIC || modifiers == Modifier.PRIVATE || modifiers == Modifier.PROTECTED) {
+                    // 生成getter前设置访问权限
+                    field.setAccessible(true);
+                    fields.add(field);
+                }
+            }
+            tmpClz = tmpClz.getSuperclass();
+        }
+        return fields;
+    }
+
+    /**
+     * 一列：列名、顺序、格式化器及属性读取
+     */
+    abstract static class Column {
+        private final String columnName;
+        private final int order;
+        private final ExcelColumnFormatter formatter;
+        private final Class<?> type;
+        private final CellKind kind;
+        /**
+         * 单元格样式的数据格式，为null时不设置样式
+         */
+        private final String cellFormat;
+        /**
+         * (Object) -> 属性类型，基本类型已转为long/float/double/boolean，引用类型已转为Object
+         */
+        protected final MethodHandle getter;
+
+        Column(Field field, ExcelField annotation, ExcelColumnFormatter formatter, MethodHandle getter) {
+            this.columnName = annotation.name();
+            this.order = annotation.order();
+            this.formatter = formatter;
+            this.type = field.getType();
+            this.kind = formatter != null ? CellKind.TEXT : CellKind.of(type);
+            this.cellFormat = cellFormat(kind, type, annotation);
+            this.getter = getter;
+        }
+
+        private static String cellFormat(CellKind kind, Class<?> type, ExcelField annotation) {
+            if (kind == CellKind.NUMBER) {
+                return annotation.numberFormat().isEmpty() ? null : annotation.numberFormat();
+            }
+            if (kind == CellKind.DATE) {
+                if (!annotation.dateFormat().isEmpty()) {
+                    return annotation.dateFormat();
+                }
+                return type == LocalDate.class ? DEFAULT_LOCAL_DATE_PATTERN : ExcelUtil.DEFAULT_DATE_PATTERN;
+            }
+            return null;
+        }
+
+        static Column create(MethodHandles.Lookup lookup, Field field) {
+            ExcelField annotation = field.getAnnotation(ExcelField.class);
+            Class<? extends ExcelColumnFormatter> format = annotation.formatter();
+            ExcelColumnFormatter formatter = format == NoFormatter.class ? null : FORMATTERS.get(format);
+            MethodHandle getter;
+            try {
+                getter = lookup.unreflectGetter(field);
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("can't access field " + field, e);
+            }
+            Class<?> type = field.getType();
+            if (type == int.class || type == long.class || type == short.class || type == byte.class) {
+                return new LongColumn(field, annotation, formatter, getter.asType(MethodType.methodType(long.class, Object.class)));
+            }
+            if (type == float.class) {
+                return new FloatColumn(field, annotation, formatter, getter.asType(MethodType.methodType(float.class, Object.class)));
+            }
+            if (type == double.class) {
+                return new DoubleColumn(field, annotation, formatter, getter.asType(MethodType.methodType(double.class, Object.class)));
+            }
+            if (type == boolean.class) {
+                return new BooleanColumn(field, annotation, formatter, getter.asType(MethodType.methodType(boolean.class, Object.class)));
+            }
+            return new ObjectColumn(field, annotation, formatter, getter.asType(MethodType.methodType(Object.class, Object.class)));
+        }
+
+        String getColumnName() {
+            return columnName;
+        }
+
+        int getOrder() {
+            return order;
+        }
+
+        ExcelColumnFormatter getFormatter() {
+            return formatter;
+        }
+
+        Class<?> getType() {
+            return type;
+        }
+
+        /**
+         * @return 单元格样式的数据格式，为null时使用默认样式
+         */
+        String getCellFormat() {
+            return cellFormat;
+        }
+
+        /**
+         * 按列类型写入单元格，null时为空单元格
+         *
+         * @param style getCellFormat对应的样式，可为null
+         */
+        void write(Cell cell, Object bean, CellStyle style) {
+            Object origin = get(bean);
+            if (origin == null) {
+                return;
+            }
+            switch (kind) {
+                case NUMBER:
+                    writeNumber(cell, (Number) origin, style);
+                    break;
+                case BOOLEAN:
+                    cell.setCellValue((Boolean) origin);
+                    break;
+                case DATE:
+                    writeDate(cell, origin, style);
+                    break;
+                default:
+                    cell.setCellValue(formatter != null ? formatter.format(origin) : origin.toString());
+            }
+        }
+
+        private static void writeNumber(Cell cell, Number number, CellStyle style) {
+            if (number instanceof BigDecimal) {
+                BigDecimal decimal = (BigDecimal) number;
+                if (decimal.precision() > MAX_EXACT_PRECISION) {
+                    cell.setCellValue(decimal.toString());
+                    return;
+                }
+            } else if (number instanceof BigInteger) {
+                if (((BigInteger) number).abs().compareTo(MAX_EXACT_BIG_INTEGER) > 0) {
+                    cell.setCellValue(number.toString());
+                    return;
+                }
+            } else if (number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte) {
+                writeLong(cell, number.longValue(), style);
+                return;
+            } else if (number instanceof Float) {
+                writeFloat(cell, number.floatValue(), style);
+                return;
+            }
+            writeDouble(cell, number.doubleValue(), style);
+        }
+
+        static void writeLong(Cell cell, long value, CellStyle style) {
+            if (value > MAX_EXACT_NUMBER || value < -MAX_EXACT_NUMBER) {
+                cell.setCellValue(Long.toString(value));
+                return;
+            }
+            writeDouble(cell, value, style);
+        }
+
+        static void writeFloat(Cell cell, float value, CellStyle style) {
+            // 直接转为double会带出二进制误差（1.2345f -> 1.2345000505447388），按float的最短十进制表示转换
+            writeDouble(cell, toDecimalDouble(value), style);
+        }
+
+        /**
+         * 取能还原为value的最短十进制数（与JDK 19起的Float.toString一致），不生成String：从1位有效数字开始逐位尝试，
+         * 整数部分不超过9位、10的幂不超过22时乘除都是一次正确舍入；超出范围时按字符串转换
+         */
+        static double toDecimalDouble(float value) {
+            if (value == 0 || Float.isNaN(value) || Float.isInfinite(value)) {
+                return value;
+            }
+            int exponent = (int) Math.floor(Math.log10(Math.abs(value)));
+            for (int digits = 1; digits <= 9; digits++) {
+                int scale = digits - 1 - exponent;
+                if (scale > MAX_EXACT_POWER || scale < -MAX_EXACT_POWER) {
+                    break;
+                }
+                double candidate = scale >= 0
+                        ? Math.rint(value * POWERS_OF_TEN[scale]) / POWERS_OF_TEN[scale]
+                        : Math.rint(value / POWERS_OF_TEN[-scale]) * POWERS_OF_TEN[-scale];
+                if ((float) candidate == value) {
+                    return candidate;
+                }
+            }
+            return Double.parseDouble(Float.toString(value));
+        }
+
+        static void writeDouble(Cell cell, double value, CellStyle style) {
+            cell.setCellValue(value);
+            if (style != null) {
+                cell.setCellStyle(style);
+            }
+        }
+
+        private static void writeDate(Cell cell, Object origin, CellStyle style) {
+            if (origin instanceof Date) {
+                cell.setCellValue((Date) origin);
+            } else if (origin instanceof Calendar) {
+                cell.setCellValue((Calendar) origin);
+            } else if (origin instanceof LocalDateTime) {
+                cell.setCellValue(Date.from(((LocalDateTime) origin).atZone(ZoneId.systemDefault()).toInstant()));
+            } else {
+                cell.setCellValue(Date.from(((LocalDate) origin).atStartOfDay(ZoneId.systemDefault()).toInstant()));
+            }
+            if (style != null) {
+                cell.setCellStyle(style);
+            }
+        }
+
+        /**
+         * @return 属性值，基本类型装箱
+         */
+        abstract Object get(Object bean);
+
+        static RuntimeException rethrow(Throwable t) {
+            if (t instanceof RuntimeException) {
+                throw (RuntimeException) t;
+            }
+            if (t instanceof Error) {
+                throw (Error) t;
+            }
+            return new IllegalStateException(t);
+        }
+    }
+
+    static final class ObjectColumn extends Column {
+        ObjectColumn(Field field, ExcelField annotation, ExcelColumnFormatter formatter, MethodHandle getter) {
+            super(field, annotation, formatter, getter);
+        }
+
+        @Override
+        Object get(Object bean) {
+            try {
+                return (Object) getter.invokeExact(bean);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        }
+    }
+
+    /**
+     * byte/short/int/long
+     */
+    static final class LongColumn extends Column {
+        LongColumn(Field field, ExcelField annotation, ExcelColumnFormatter formatter, MethodHandle getter) {
+            super(field, annotation, formatter, getter);
+        }
+
+        long getLong(Object bean) {
+            try {
+                return (long) getter.invokeExact(bean);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        }
+
+        @Override
+        Object get(Object bean) {
+            long value = getLong(bean);
+            Class<?> type = getType();
+            if (type == int.class) {
+                return (int) value;
+            }
+            if (type == short.class) {
+                return (short) value;
+            }
+            if (type == byte.class) {
+                return (byte) value;
+            }
+            return value;
+        }
+
+        @Override
+        void write(Cell cell, Object bean, CellStyle style) {
+            if (getFormatter() != null) {
+                super.write(cell, bean, style);
+                return;
+            }
+            writeLong(cell, getLong(bean), style);
+        }
+    }
+
+    static final class FloatColumn extends Column {
+        FloatColumn(Field field, ExcelField annotation, ExcelColumnFormatter formatter, MethodHandle getter) {
+            super(field, annotation, formatter, getter);
+        }
+
+        float getFloat(Object bean) {
+            try {
+                return (float) getter.invokeExact(bean);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        }
+
+        @Override
+        Object get(Object bean) {
+            return getFloat(bean);
+        }
+
+        @Override
+        void write(Cell cell, Object bean, CellStyle style) {
+            if (getFormatter() != null) {
+                super.write(cell, bean, style);
+                return;
+            }
+            writeFloat(cell, getFloat(bean), style);
+        }
+    }
+
+    static final class DoubleColumn extends Column {
+        DoubleColumn(Field field, ExcelField annotation, ExcelColumnFormatter formatter, MethodHandle getter) {
+            super(field, annotation, formatter, getter);
+        }
+
+        double getDouble(Object bean) {
+            try {
+                return (double) getter.invokeExact(bean);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        }
+
+        @Override
+        Object get(Object bean) {
+            return getDouble(bean);
+        }
+
+        @Override
+        void write(Cell cell, Object bean, CellStyle style) {
+            if (getFormatter() != null) {
+                super.write(cell, bean, style);
+                return;
+            }
+            writeDouble(cell, getDouble(bean), style);
+        }
+    }
+
+    static final class BooleanColumn extends Column {
+        BooleanColumn(Field field, ExcelField annotation, ExcelColumnFormatter formatter, MethodHandle getter) {
+            super(field, annotation, formatter, getter);
+        }
+
+        boolean getBoolean(Object bean) {
+            try {
+                return (boolean) getter.invokeExact(bean);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        }
+
+        @Override
+        Object get(Object bean) {
+            return getBoolean(bean);
+        }
+
+        @Override
+        void write(Cell cell, Object bean, CellStyle style) {
+            if (getFormatter() != null) {
+                super.write(cell, bean, style);
+                return;
+            }
+            cell.setCellValue(getBoolean(bean));
+        }
+    }
+
+    /**
+     * 单元格类型，按属性声明类型确定
+     */
+    enum CellKind {
+        TEXT, NUMBER, BOOLEAN, DATE;
+
+        static CellKind of(Class<?> type) {
+            if (type.isPrimitive()) {
+                return type == boolean.class ? BOOLEAN : type == char.class ? TEXT : NUMBER;
+            }
+            if (type == Integer.class || type == Long.class || type == Short.class || type == Byte.class
+                    || type == Float.class || type == Double.class || type == BigDecimal.class || type == BigInteger.class) {
+                return NUMBER;
+            }
+            if (type == Boolean.class) {
+                return BOOLEAN;
+            }
+            if (Date.class.isAssignableFrom(type) || Calendar.class.isAssignableFrom(type) || type == LocalDateTime.class || type == LocalDate.class) {
+                return DATE;
+            }
+            return TEXT;
+        }
+    }
+}
@@ -29,4 +29,17 @@ public @interface ExcelField {
      * @return
      */
     Class<? extends ExcelColumnFormatter> formatter() default NoFormatter.class;
+
+    /**
+     * 日期格式（Excel格式），Date、Calendar、LocalDateTime、LocalDate类型的列写为日期单元格，
+     * 默认yyyy-MM-dd HH:mm:ss，LocalDate默认yyyy-MM-dd；设置了formatter时按文本写入
+     * @return
+     */
+    String dateFormat() default "";
+
+    /**
+     * 数字格式（Excel格式，如0.00、#,##0），数字类型的列写为数字单元格，默认为常规格式；设置了formatter时按文本写入
+     * @return
+     */
+    String numberFormat() default "";
 }
@@ -6,25 +6,34 @@ import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.poi.hssf.usermodel.*;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Font;
 import org.apache.poi.ss.usermodel.HorizontalAlignment;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 
 import javax.servlet.http.HttpServletResponse;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
 import java.math.BigDecimal;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 简单excel生成工具(使用POI)，配合@PoiExcelFiled注解使用
  * <p>
  * 返回HSSFSheet可以在此基础上新增sheet、获取sheet字节数组
  * </p>
+ * <p>
+ * 数据量大时使用createStreamingExcel生成xlsx：内存中只保留最近rowAccessWindowSize行，更早的行写入临时文件，
+ * 单个sheet最多1048575行；写出后需调用dispose删除临时文件（getExcelBytes、write2Response已调用）
+ * </p>
  *
  * @author hzhqk
  * @date 2018/03/21
@@ -39,6 +48,23 @@ public class ExcelUtil {
      * 单个Sheet页最大行数（除去标题）
      */
     private static final int SINGLE_SHEET_MAX_ROWS = 65535;
+    /**
+     * xlsx单个Sheet页最大行数（除去标题）
+     */
+    private static final int XLSX_SINGLE_SHEET_MAX_ROWS = 1048575;
+    /**
+     * xlsx流式写入时内存中保留的默认行数
+     */
+    private static final int DEFAULT_ROW_ACCESS_WINDOW_SIZE = 100;
+    /**
+     * 表头样式在样式缓存中的key
+     */
+    private static final String HEADER_STYLE_KEY = "@header";
+    /**
+     * workbook -> 数据格式 -> 样式下标，每个workbook的样式只创建一次（xls最多4000个样式）
+     * 只保存下标，不引用workbook对象，workbook回收后自动移除；内层Map为ConcurrentHashMap，多个线程导出时不会互相影响
+     */
+    private static final Map<Workbook, Map<String, Integer>> CELL_STYLE_INDEXES = Collections.synchronizedMap(new WeakHashMap<>());
     /**
      * 默认单元格宽度
      */
@@ -46,7 +72,7 @@ public class ExcelUtil {
     /**
      * 默认日期格式
      */
-    private static final String DEFAULT_DATE_PATTERN = "yyyy-MM-dd HH:mm:ss";
+    static final String DEFAULT_DATE_PATTERN = "yyyy-MM-dd HH:mm:ss";
 
     /**
      * 根据列标题和列数据生成excel表格文件
@@ -90,32 +116,96 @@ public class ExcelUtil {
      * @throws Exception
      */
     public static HSSFWorkbook createSheetAndWriteData(HSSFWorkbook workbook, String sheetName, List<?> datas) throws Exception {
+        createSheetsAndWriteData(workbook, sheetName, datas, SINGLE_SHEET_MAX_ROWS);
+        return workbook;
+    }
+
+    /**
+     * 流式生成xlsx表格文件，excel文件默认一个sheet，超过1048575行时分页
+     *
+     * @param sheetName 生成的excel文件的sheet名，分页时会在后面加序号
+     * @param datas     列数据
+     * @return 写出后需调用dispose删除临时文件
+     * @throws Exception
+     */
+    public static SXSSFWorkbook createStreamingExcel(String sheetName, List<?> datas) throws Exception {
+        return createStreamingExcel(sheetName, datas, DEFAULT_ROW_ACCESS_WINDOW_SIZE);
+    }
+
+    /**
+     * 流式生成xlsx表格文件，excel文件默认一个sheet，超过1048575行时分页
+     *
+     * @param sheetName           生成的excel文件的sheet名，分页时会在后面加序号
+     * @param datas               列数据
+     * @param rowAccessWindowSize 内存中保留的行数，超出的行写入临时文件
+     * @return 写出后需调用dispose删除临时文件
+     * @throws Exception
+     */
+    public static SXSSFWorkbook createStreamingExcel(String sheetName, List<?> datas, int rowAccessWindowSize) throws Exception {
+        SXSSFWorkbook workbook = new SXSSFWorkbook(rowAccessWindowSize);
+        try {
+            createSheetAndWriteData(workbook, sheetName, datas);
+        } catch (Exception e) {
+            workbook.dispose();
+            throw e;
+        }
+        return workbook;
+    }
+
+    /**
+     * 在现有SXSSFWorkbook基础上新建sheet页
+     *
+     * @param workbook
+     * @param sheetName
+     * @param datas
+     * @return
+     * @throws Exception
+     */
+    public static SXSSFWorkbook createSheetAndWriteData(SXSSFWorkbook workbook, String sheetName, List<?> datas) throws Exception {
+        createSheetsAndWriteData(workbook, sheetName, datas, XLSX_SINGLE_SHEET_MAX_ROWS);
+        return workbook;
+    }
+
+    /**
+     * 在现有SXSSFWorkbook基础上新建sheet页，逐条读取数据写入，数据不需要全部加载到内存中（如数据库游标）
+     * 超过1048575行时新建sheet，名称依次加序号2、3...
+     *
+     * @param workbook
+     * @param sheetName
+     * @param clz       数据类型，用于读取@ExcelField
+     * @param datas
+     * @return
+     * @throws Exception
+     */
+    public static <T> SXSSFWorkbook createSheetAndWriteData(SXSSFWorkbook workbook, String sheetName, Class<T> clz, Iterator<? extends T> datas) throws Exception {
         if (StringUtils.isBlank(sheetName)) {
             sheetName = getDefaultSheetName(workbook, workbook.getNumberOfSheets());
         }
-        if (CollectionUtils.isEmpty(datas)) {
+        if (datas == null || !datas.hasNext()) {
             log.info("数据为空，不写入数据");
-            // 创建一个空sheet，防止打开报错
             workbook.createSheet(sheetName);
             return workbook;
         }
-        List<Field> allFields = getAllFields(datas.get(0).getClass());
-        List<Field> dataFields = allFields.stream().filter(f -> f.getAnnotation(ExcelField.class) != null).collect(Collectors.toList());
-        if (datas.size() > SINGLE_SHEET_MAX_ROWS) {
-            List<? extends List<?>> parts = Lists.partition(datas, SINGLE_SHEET_MAX_ROWS);
-            int sheetIndex = 1;
-            for (List<?> part : parts) {
-                createOneSheetAndWriteData(workbook, sheetName + sheetIndex++, part, dataFields);
-            }
-        } else {
-            createOneSheetAndWriteData(workbook, sheetName, datas, dataFields);
-        }
+        writeSheets(workbook, sheetName, ExcelExportPlan.of(clz), datas, false, XLSX_SINGLE_SHEET_MAX_ROWS);
         return workbook;
     }
 
-    private static String getDefaultSheetName(HSSFWorkbook workbook, int sheetNum) {
+    private static void createSheetsAndWriteData(Workbook workbook, String sheetName, List<?> datas, int maxRows) throws Exception {
+        if (StringUtils.isBlank(sheetName)) {
+            sheetName = getDefaultSheetName(workbook, workbook.getNumberOfSheets());
+        }
+        if (CollectionUtils.isEmpty(datas)) {
+            log.info("数据为空，不写入数据");
+            // 创建一个空sheet，防止打开报错
+            workbook.createSheet(sheetName);
+            return;
+        }
+        writeSheets(workbook, sheetName, ExcelExportPlan.of(datas.get(0).getClass()), datas.iterator(), datas.size() > maxRows, maxRows);
+    }
+
+    private static String getDefaultSheetName(Workbook workbook, int sheetNum) {
         if (sheetNum == 0) {
-            return DEFAULT_DATE_PATTERN + 1;
+            return DEFAULT_SHEET_NAME + 1;
         }
         String sheetName = DEFAULT_SHEET_NAME + (sheetNum + 1);
         if (workbook.getSheetIndex(sheetName) >= 0) {
@@ -124,145 +214,120 @@ public class ExcelUtil {
         return sheetName;
     }
 
-    private static void createOneSheetAndWriteData(HSSFWorkbook workbook, String sheetName, List<?> datas, List<Field> dataFields) throws Exception {
-        HSSFSheet sheet = workbook.createSheet(sheetName);
-        List<FieldWithFormatter> fieldWithFormatter = convert2FieldWithFormatter(dataFields);
-        initSheetHeaders(workbook, sheet, fieldWithFormatter);
-        writeData(sheet, datas, fieldWithFormatter);
+    /**
+     * 写入数据，每个sheet最多maxRows行，超出时新建sheet
+     *
+     * @param numbered 第一个sheet名是否也加序号，否则从第二个sheet开始加序号
+     */
+    private static void writeSheets(Workbook workbook, String sheetName, ExcelExportPlan plan, Iterator<?> datas, boolean numbered, int maxRows) throws Exception {
+        List<ExcelExportPlan.Column> columns = plan.getColumns();
+        CellStyle[] styles = new CellStyle[columns.size()];
+        for (int i = 0; i < styles.length; i++) {
+            String format = columns.get(i).getCellFormat();
+            styles[i] = format == null ? null : getCellStyle(workbook, format);
+        }
+        int sheetIndex = 1;
+        do {
+            Sheet sheet = workbook.createSheet(sheetIndex == 1 && !numbered ? sheetName : sheetName + sheetIndex);
+            initSheetHeaders(workbook, sheet, columns);
+            writeData(sheet, datas, maxRows, columns, styles);
+            sheetIndex++;
+        } while (datas.hasNext());
     }
 
     /**
-     * 将HSSFWorkbook转为bytes
+     * 将Workbook转为bytes，SXSSFWorkbook写出后删除临时文件
      *
      * @param workbook
      * @return
      * @throws IOException
      */
-    public static byte[] getExcelBytes(HSSFWorkbook workbook) throws IOException {
+    public static byte[] getExcelBytes(Workbook workbook) throws IOException {
         ByteArrayOutputStream os = new ByteArrayOutputStream();
-        workbook.write(os);
+        try {
+            workbook.write(os);
+        } finally {
+            dispose(workbook);
+        }
         return os.toByteArray();
     }
 
     /**
-     * 传到前台
+     * 传到前台，SXSSFWorkbook写出后删除临时文件
      *
      * @param workbook
      * @param response
      */
-    public static void write2Response(HSSFWorkbook workbook, String fileName, HttpServletResponse response) throws IOException {
+    public static void write2Response(Workbook workbook, String fileName, HttpServletResponse response) throws IOException {
         response.setHeader("Content-Disposition", "attachment;filename=" + new String((fileName).getBytes(), "ISO-8859-1"));
-        response.setContentType("application/x-execl");
-        workbook.write(response.getOutputStream());
+        if (workbook instanceof SXSSFWorkbook) {
+            response.setContentType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
+        } else {
+            response.setContentType("application/x-execl");
+        }
+        try {
+            workbook.write(response.getOutputStream());
+        } finally {
+            dispose(workbook);
+        }
     }
 
-    private static void writeData(HSSFSheet sheet, List<?> datas, List<FieldWithFormatter> fieldWithFormatter) throws Exception {
-        if (CollectionUtils.isEmpty(datas)) {
-            return;
+    private static void dispose(Workbook workbook) {
+        if (workbook instanceof SXSSFWorkbook) {
+            ((SXSSFWorkbook) workbook).dispose();
         }
+    }
+
+    /**
+     * 写入当前sheet，最多maxRows行，剩余数据留在datas中
+     */
+    private static void writeData(Sheet sheet, Iterator<?> datas, int maxRows, List<ExcelExportPlan.Column> columns, CellStyle[] styles) throws Exception {
         int startX = 1;
-        int startY = 0;
-        for (Object item : datas) {
-            HSSFRow row = sheet.createRow(startX);
-            for (FieldWithFormatter fwf : fieldWithFormatter) {
-                HSSFCell cell = row.createCell(startY++);
-                Object origin = fwf.getField().get(item);
-                String columnData = "";
-                if (null != origin) {
-                    ExcelColumnFormatter formatter = fwf.getFormatter();
-                    if (formatter != null) {
-                        columnData = formatter.format(origin);
-                    } else {
-                        columnData = origin.toString();
-                    }
-                }
-                cell.setCellValue(columnData);
+        while (startX <= maxRows && datas.hasNext()) {
+            Object item = datas.next();
+            Row row = sheet.createRow(startX);
+            for (int i = 0; i < styles.length; i++) {
+                columns.get(i).write(row.createCell(i), item, styles[i]);
             }
             startX++;
-            startY = 0;
         }
     }
 
-    private static List<FieldWithFormatter> convert2FieldWithFormatter(List<Field> fields) {
-        return fields.stream().map(f -> {
-            ExcelField annotation = f.getAnnotation(ExcelField.class);
-            ExcelColumnFormatter formatter = null;
-            try {
-                Class<? extends ExcelColumnFormatter> format = annotation.formatter();
-                if (format != NoFormatter.class) {
-                    formatter = format.newInstance();
-                }
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
-            return new FieldWithFormatter(f, annotation.name(), annotation.order(), formatter);
-        }).sorted(Comparator.comparingInt(f -> f.order)).collect(Collectors.toList());
+    /**
+     * 获取workbook中数据格式对应的样式，不存在时创建
+     *
+     * @param workbook
+     * @param format   Excel数据格式，如yyyy-MM-dd、0.00
+     * @return
+     */
+    private static CellStyle getCellStyle(Workbook workbook, String format) {
+        int index = getCellStyleIndexes(workbook).computeIfAbsent(format, k -> {
+            CellStyle style = workbook.createCellStyle();
+            style.setDataFormat(workbook.createDataFormat().getFormat(format));
+            return (int) style.getIndex();
+        });
+        return workbook.getCellStyleAt(index);
     }
 
-    private static class FieldWithFormatter {
-        private Field field;
-        private String columnName;
-        private int order;
-        private ExcelColumnFormatter formatter;
-
-        public FieldWithFormatter(Field field, String columnName, int order, ExcelColumnFormatter formatter) {
-            this.field = field;
-            this.columnName = columnName;
-            this.order = order;
-            this.formatter = formatter;
-        }
-
-        public Field getField() {
-            return field;
-        }
-
-        public void setField(Field field) {
-            this.field = field;
-        }
-
-        public String getColumnName() {
-            return columnName;
-        }
-
-        public void setColumnName(String columnName) {
-            this.columnName = columnName;
-        }
-
-        public int getOrder() {
-            return order;
-        }
-
-        public void setOrder(int order) {
-            this.order = order;
-        }
-
-        public ExcelColumnFormatter getFormatter() {
-            return formatter;
-        }
-
-        public void setFormatter(ExcelColumnFormatter formatter) {
-            this.formatter = formatter;
-        }
+    private static CellStyle getHeaderStyle(Workbook wb) {
+        int index = getCellStyleIndexes(wb).computeIfAbsent(HEADER_STYLE_KEY, k -> {
+            // 表头样式
+            CellStyle style = wb.createCellStyle();
+            // 创建一个居中格式
+            style.setAlignment(HorizontalAlignment.CENTER);
+            // 字体样式
+            Font fontStyle = wb.createFont();
+            fontStyle.setFontName("微软雅黑");
+            fontStyle.setFontHeightInPoints((short) 12);
+            fontStyle.setBold(true);
+            style.setFont(fontStyle);
+            return (int) style.getIndex();
+        });
+        return wb.getCellStyleAt(index);
     }
 
-    private static <T> List<Field> getAllFields(Class<T> clz) {
-        List<Field> fields = Lists.newArrayList();
-        Class<?> tmpClz = clz;
-        // 不获取Object层的属性
-        String finalParent = "java.lang.object";
-        while (tmpClz != null && !tmpClz.getName().toLowerCase().equals(finalParent)) {
-            // 只获取bean普通属性
-            for (Field field : tmpClz.getDeclaredFields()) {
-                // 不在设置数据时设置访问权限
-                field.setAccessible(true);
-                int modifiers = field.getModifiers();
-                if (modifiers == Modifier.PUBLIC || modifiers == Modifier.PRIVATE || modifiers == Modifier.PROTECTED) {
-                    fields.add(field);
-                }
-            }
-            tmpClz = tmpClz.getSuperclass();
-        }
-        return fields;
+    private static Map<String, Integer> getCellStyleIndexes(Workbook workbook) {
+        return CELL_STYLE_INDEXES.computeIfAbsent(workbook, k -> new ConcurrentHashMap<>());
     }
 
     /**
@@ -271,29 +336,21 @@ public class ExcelUtil {
      * @param sheet
      * @param dataFields
      */
-    private static void initSheetHeaders(HSSFWorkbook wb, HSSFSheet sheet, List<FieldWithFormatter> dataFields) {
+    private static void initSheetHeaders(Workbook wb, Sheet sheet, List<ExcelExportPlan.Column> dataFields) {
         if (CollectionUtils.isEmpty(dataFields)) {
             return;
         }
-        // 表头样式
-        HSSFCellStyle style = wb.createCellStyle();
-        // 创建一个居中格式
-        style.setAlignment(HorizontalAlignment.CENTER);
-        // 字体样式
-        HSSFFont fontStyle = wb.createFont();
-        fontStyle.setFontName("微软雅黑");
-        fontStyle.setFontHeightInPoints((short) 12);
-        fontStyle.setBold(true);
-        style.setFont(fontStyle);
+        // 表头样式，每个workbook只创建一次
+        CellStyle style = getHeaderStyle(wb);
         // 生成sheet1内容
         // 第一个sheet的第一行为标题
-        HSSFRow rowFirst = sheet.createRow(0);
+        Row rowFirst = sheet.createRow(0);
         // 冻结第一行
         sheet.createFreezePane(0, 1, 0, 1);
         // 写标题
         for (int i = 0; i < dataFields.size(); i++) {
             // 获取第一行的每个单元格
-            HSSFCell cell = rowFirst.createCell(i);
+            Cell cell = rowFirst.createCell(i);
             // 设置每列的列宽
             sheet.setColumnWidth(i, DEFAULT_CELL_WIDTH);
             //加样式
@@ -328,6 +385,13 @@ public class ExcelUtil {
         HSSFWorkbook wb = ExcelUtil.createExcelWithSheetName("测试", datas);
         ExcelUtil.createSheetAndWriteData(wb, "", Arrays.asList(new Extension(9999)));
         wb.write(new FileOutputStream(new File("/Users/shhanqiankun/Desktop/excel.xls")));
+        // 大数据量使用流式xlsx，单个sheet
+        SXSSFWorkbook swb = ExcelUtil.createStreamingExcel("测试", datas);
+        try (FileOutputStream os = new FileOutputStream(new File("/Users/shhanqiankun/Desktop/excel.xlsx"))) {
+            swb.write(os);
+        } finally {
+            swb.dispose();
+        }
         System.out.println("everything goes well");
     }
 
@@ -1,6 +1,5 @@
 import com.alibaba.otter.canal.protocol.CanalEntry;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.tqmall.lsc.common.tools.DateUtils;
 import com.tqmall.lsc.mq_canallog.CanalLogMsgProcessor;
 import lombok.Getter;
@@ -11,12 +10,31 @@ import org.springframework.core.convert.converter.Converter;
 import org.springframework.core.convert.support.DefaultConversionService;
 
 import javax.annotation.PostConstruct;
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.Date;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public abstract class AbstractCanalLogMsgProcessor {
 
@@ -34,7 +52,28 @@ public abstract class AbstractCanalLogMsgProcessor {
         }
     };
 
-    private ConcurrentHashMap<String, Map<String, Field>> cachedClzFields = new ConcurrentHashMap<>();
+    private CanalColumnConverters columnConverters = new CanalColumnConverters(conversionService);
+
+    private final CanalBindingRegistry bindingRegistry = new CanalBindingRegistry();
+
+    private ConcurrentHashMap<CanalBindingPlan.Key, CanalBindingPlan<?>> cachedPlans = new ConcurrentHashMap<>();
+
+    private volatile CanalMetrics metrics = new InMemoryCanalMetrics();
+
+    /**
+     * processEntries使用的重放过滤，为null时不过滤
+     */
+    private volatile CanalReplayFilter replayFilter;
+
+    /**
+     * forEachChangeReusing使用的线程内bean实例
+     */
+    private ThreadLocal<Map<Class<?>, ReusableBeans>> reusableBeans = ThreadLocal.withInitial(IdentityHashMap::new);
+
+    /**
+     * schemaName -> tableName -> 订阅
+     */
+    private ConcurrentHashMap<String, Map<String, TableSubscription>> subscriptions = new ConcurrentHashMap<>();
 
 
     /**
@@ -48,16 +87,44 @@ public abstract class AbstractCanalLogMsgProcessor {
      * @throws InstantiationException
      */
     public <T> List<RowDataPair<T>> getChanges(CanalEntry.RowChange rowChange, Class<T> clz) throws InstantiationException, IllegalAccessException {
+        return getChanges(null, rowChange, clz);
+    }
+
+    /**
+     * 同getChanges(rowChange, clz)，按entry对应的表缓存绑定计划，entry为DDL时使该表的绑定计划失效并返回空列表
+     *
+     * @param entry     可为null，为null时不区分表
+     * @param rowChange
+     * @param clz
+     * @return
+     * @throws IllegalAccessException 参数为空时会抛异常
+     * @throws InstantiationException
+     */
+    public <T> List<RowDataPair<T>> getChanges(CanalEntry.Entry entry, CanalEntry.RowChange rowChange, Class<T> clz) throws InstantiationException, IllegalAccessException {
         if (rowChange == null || clz == null || rowChange.getRowDatasList() == null) {
             throw new IllegalArgumentException("rowChange or clz can't be empty.");
         }
-        Map<String, Field> beanFields = getClzFields(clz);
         List<RowDataPair<T>> result = Lists.newArrayList();
+        if (handleDdl(entry, rowChange)) {
+            return result;
+        }
+        String tableKey = getTableKey(entry);
+        CanalBeanBinder<T> binder = getBinder(clz);
+        CanalBindingPlan<T> beforePlan = null;
+        CanalBindingPlan<T> afterPlan = null;
+        long start = System.nanoTime();
+        long unmapped = 0;
         for (CanalEntry.RowData rowData : rowChange.getRowDatasList()) {
-            T dataBefore = convertRowData(rowData.getBeforeColumnsList(), beanFields, clz);
-            T dataAfter = convertRowData(rowData.getAfterColumnsList(), beanFields, clz);
+            List<CanalEntry.Column> beforeCols = rowData.getBeforeColumnsList();
+            List<CanalEntry.Column> afterCols = rowData.getAfterColumnsList();
+            beforePlan = getBindingPlan(tableKey, binder, beforeCols, beforePlan);
+            afterPlan = getBindingPlan(tableKey, binder, afterCols, afterPlan);
+            T dataBefore = convertRowData(beforeCols, beforePlan);
+            T dataAfter = convertRowData(afterCols, afterPlan);
+            unmapped += unmappedCount(beforeCols, beforePlan) + unmappedCount(afterCols, afterPlan);
             result.add(new RowDataPair<>(dataBefore, dataAfter));
         }
+        recordMetrics(tableKey, rowChange.getEventType(), result.size(), System.nanoTime() - start, unmapped);
         return result;
     }
 
@@ -72,7 +139,21 @@ public abstract class AbstractCanalLogMsgProcessor {
      * @throws InstantiationException
      */
     public <T> List<T> getChangesBefore(CanalEntry.RowChange rowChange, Class<T> clz) throws IllegalAccessException, InstantiationException {
-        return getChangesBeforeOrAfter(rowChange, clz, true);
+        return getChangesBeforeOrAfter(null, rowChange, clz, true);
+    }
+
+    /**
+     * 同getChangesBefore(rowChange, clz)，按entry对应的表缓存绑定计划，entry为DDL时使该表的绑定计划失效并返回空列表
+     *
+     * @param entry     可为null，为null时不区分表
+     * @param rowChange
+     * @param clz
+     * @return
+     * @throws IllegalAccessException 参数为空时会抛异常
+     * @throws InstantiationException
+     */
+    public <T> List<T> getChangesBefore(CanalEntry.Entry entry, CanalEntry.RowChange rowChange, Class<T> clz) throws IllegalAccessException, InstantiationException {
+        return getChangesBeforeOrAfter(entry, rowChange, clz, true);
     }
 
     /**
@@ -86,11 +167,309 @@ public abstract class AbstractCanalLogMsgProcessor {
      * @throws InstantiationException
      */
     public <T> List<T> getChangesAfter(CanalEntry.RowChange rowChange, Class<T> clz) throws IllegalAccessException, InstantiationException {
-        return getChangesBeforeOrAfter(rowChange, clz, false);
+        return getChangesBeforeOrAfter(null, rowChange, clz, false);
+    }
+
+    /**
+     * 同getChangesAfter(rowChange, clz)，按entry对应的表缓存绑定计划，entry为DDL时使该表的绑定计划失效并返回空列表
+     *
+     * @param entry     可为null，为null时不区分表
+     * @param rowChange
+     * @param clz
+     * @return
+     * @throws IllegalAccessException 参数为空时会抛异常
+     * @throws InstantiationException
+     */
+    public <T> List<T> getChangesAfter(CanalEntry.Entry entry, CanalEntry.RowChange rowChange, Class<T> clz) throws IllegalAccessException, InstantiationException {
+        return getChangesBeforeOrAfter(entry, rowChange, clz, false);
+    }
+
+    /**
+     * 逐行获取改变<b>前后</b>的数据，不生成List，适合大批量的RowChange
+     * 每行的before/after在调用getBefore()/getAfter()时才转换，未调用的一侧不转换
+     *
+     * @param rowChange
+     * @param clz
+     * @param consumer
+     * @throws IllegalArgumentException 参数为空时会抛异常
+     * @throws IllegalStateException    转换失败时抛出，cause为InstantiationException/IllegalAccessException
+     */
+    public <T> void forEachChange(CanalEntry.RowChange rowChange, Class<T> clz, Consumer<RowDataPair<T>> consumer) {
+        forEachChange(null, rowChange, clz, consumer);
+    }
+
+    /**
+     * 同forEachChange(rowChange, clz, consumer)，按entry对应的表缓存绑定计划，entry为DDL时使该表的绑定计划失效且不回调
+     *
+     * @param entry     可为null，为null时不区分表
+     * @param rowChange
+     * @param clz
+     * @param consumer
+     */
+    public <T> void forEachChange(CanalEntry.Entry entry, CanalEntry.RowChange rowChange, Class<T> clz, Consumer<RowDataPair<T>> consumer) {
+        Iterator<RowDataPair<T>> iterator = iterateChanges(entry, rowChange, clz);
+        while (iterator.hasNext()) {
+            consumer.accept(iterator.next());
+        }
+    }
+
+    /**
+     * 逐行获取改变<b>前后</b>的数据，规则同forEachChange
+     *
+     * @param rowChange
+     * @param clz
+     * @return
+     */
+    public <T> Iterator<RowDataPair<T>> iterateChanges(CanalEntry.RowChange rowChange, Class<T> clz) {
+        return iterateChanges(null, rowChange, clz);
+    }
+
+    /**
+     * 逐行获取改变<b>前后</b>的数据，规则同forEachChange
+     *
+     * @param entry     可为null，为null时不区分表
+     * @param rowChange
+     * @param clz
+     * @return
+     */
+    public <T> Iterator<RowDataPair<T>> iterateChanges(CanalEntry.Entry entry, CanalEntry.RowChange rowChange, Class<T> clz) {
+        if (rowChange == null || clz == null || rowChange.getRowDatasList() == null) {
+            throw new IllegalArgumentException("rowChange or clz can't be empty.");
+        }
+        if (handleDdl(entry, rowChange)) {
+            return Collections.emptyIterator();
+        }
+        return new LazyRowIterator<>(getTableKey(entry), rowChange.getEventType(), getBinder(clz), rowChange.getRowDatasList());
+    }
+
+    /**
+     * 逐行获取改变<b>前后</b>的数据，规则同forEachChange
+     *
+     * @param rowChange
+     * @param clz
+     * @return 顺序流
+     */
+    public <T> Stream<RowDataPair<T>> streamChanges(CanalEntry.RowChange rowChange, Class<T> clz) {
+        return streamChanges(null, rowChange, clz);
+    }
+
+    /**
+     * 逐行获取改变<b>前后</b>的数据，规则同forEachChange
+     *
+     * @param entry     可为null，为null时不区分表
+     * @param rowChange
+     * @param clz
+     * @return 顺序流
+     */
+    public <T> Stream<RowDataPair<T>> streamChanges(CanalEntry.Entry entry, CanalEntry.RowChange rowChange, Class<T> clz) {
+        Iterator<RowDataPair<T>> iterator = iterateChanges(entry, rowChange, clz);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * 逐行获取改变<b>前后</b>的数据（复用实例模式），规则同forEachChange，但每个线程每个class只使用一组bean实例，
+     * 每个RowChange只使用一个RowDataPair，逐行重置属性后复用，不再为每行创建对象
+     * <p>
+     * 注意：回调返回后RowDataPair及其before/after即被下一行覆盖，consumer不能在回调外持有其引用，需要保留时请自行复制；
+     * 在回调内对同一class再次调用时不复用，按普通模式创建实例
+     * </p>
+     *
+     * @param entry     可为null，为null时不区分表
+     * @param rowChange
+     * @param clz
+     * @param consumer
+     */
+    public <T> void forEachChangeReusing(CanalEntry.Entry entry, CanalEntry.RowChange rowChange, Class<T> clz, Consumer<RowDataPair<T>> consumer) {
+        if (rowChange == null || clz == null || rowChange.getRowDatasList() == null) {
+            throw new IllegalArgumentException("rowChange or clz can't be empty.");
+        }
+        if (handleDdl(entry, rowChange) || rowChange.getRowDatasCount() == 0) {
+            return;
+        }
+        CanalBeanBinder<T> binder = getBinder(clz);
+        Map<Class<?>, ReusableBeans> pool = reusableBeans.get();
+        ReusableBeans beans = pool.get(clz);
+        if (beans == null) {
+            try {
+                beans = new ReusableBeans(binder.newInstance(), binder.newInstance());
+            } catch (InstantiationException | IllegalAccessException e) {
+                throw new IllegalStateException("create instance of " + clz.getName() + " failed", e);
+            }
+            pool.put(clz, beans);
+        }
+        if (beans.inUse) {
+            forEachChange(entry, rowChange, clz, consumer);
+            return;
+        }
+        beans.inUse = true;
+        try {
+            List<CanalEntry.RowData> rowDatas = rowChange.getRowDatasList();
+            LazyRowIterator<T> iterator = new LazyRowIterator<>(getTableKey(entry), rowChange.getEventType(), binder, rowDatas);
+            LazyRowDataPair<T> pair = new LazyRowDataPair<>(iterator, rowDatas.get(0), clz.cast(beans.before), clz.cast(beans.after));
+            for (CanalEntry.RowData rowData : rowDatas) {
+                pair.reset(rowData);
+                consumer.accept(pair);
+            }
+            iterator.flushMetrics(rowDatas.size());
+        } finally {
+            beans.inUse = false;
+        }
+    }
+
+    /**
+     * 只获取UPDATE事件中<b>改变了</b>的列，每行返回一个改变后的bean及改变的属性集合
+     * bean中只赋值改变的列和主键列，其他属性保持默认值；宽表每次只改少数列时可大幅减少转换和对象分配
+     *
+     * @param entry     可为null，为null时不区分表
+     * @param rowChange 必须为UPDATE事件
+     * @param clz
+     * @return
+     * @throws IllegalAccessException 参数为空或非UPDATE事件时会抛异常
+     * @throws InstantiationException
+     */
+    public <T> List<ChangedRow<T>> getChangedColumns(CanalEntry.Entry entry, CanalEntry.RowChange rowChange, Class<T> clz) throws InstantiationException, IllegalAccessException {
+        if (rowChange == null || clz == null || rowChange.getRowDatasList() == null) {
+            throw new IllegalArgumentException("rowChange or clz can't be empty.");
+        }
+        if (rowChange.getEventType() != CanalEntry.EventType.UPDATE) {
+            throw new IllegalArgumentException("only UPDATE rowChange is supported, but was " + rowChange.getEventType());
+        }
+        List<ChangedRow<T>> result = Lists.newArrayList();
+        if (handleDdl(entry, rowChange)) {
+            return result;
+        }
+        String tableKey = getTableKey(entry);
+        CanalBeanBinder<T> binder = getBinder(clz);
+        CanalBindingPlan<T> plan = null;
+        long start = System.nanoTime();
+        long unmapped = 0;
+        for (CanalEntry.RowData rowData : rowChange.getRowDatasList()) {
+            List<CanalEntry.Column> cols = rowData.getAfterColumnsList();
+            plan = getBindingPlan(tableKey, binder, cols, plan);
+            BitSet changedFields = new BitSet(binder.getFieldNames().length);
+            T data = convertChangedColumns(cols, plan, changedFields);
+            unmapped += unmappedCount(cols, plan);
+            result.add(new ChangedRow<>(data, changedFields, binder.getFieldNames()));
+        }
+        recordMetrics(tableKey, rowChange.getEventType(), result.size(), System.nanoTime() - start, unmapped);
+        return result;
+    }
+
+    /**
+     * entry为DDL（ALTER、CREATE、TRUNCATE等）时使对应表的绑定计划失效，下次转换时按新的列布局重建
+     * 使用带entry参数的getChanges系列方法时会自动调用
+     *
+     * @param entry     为null时不处理
+     * @param rowChange
+     * @return 是否为DDL
+     */
+    public boolean handleDdl(CanalEntry.Entry entry, CanalEntry.RowChange rowChange) {
+        if (entry == null) {
+            return false;
+        }
+        CanalEntry.EventType eventType = entry.getHeader().getEventType();
+        boolean isDdl = (rowChange != null && rowChange.getIsDdl())
+                || eventType == CanalEntry.EventType.ALTER || eventType == CanalEntry.EventType.CREATE
+                || eventType == CanalEntry.EventType.ERASE || eventType == CanalEntry.EventType.TRUNCATE
+                || eventType == CanalEntry.EventType.RENAME || eventType == CanalEntry.EventType.CINDEX
+                || eventType == CanalEntry.EventType.DINDEX;
+        if (isDdl) {
+            invalidateBindingPlans(entry.getHeader().getSchemaName(), entry.getHeader().getTableName());
+        }
+        return isDdl;
+    }
+
+    /**
+     * 使表对应的绑定计划失效
+     *
+     * @param schemaName
+     * @param tableName
+     */
+    public void invalidateBindingPlans(String schemaName, String tableName) {
+        String tableKey = schemaName + "." + tableName;
+        cachedPlans.keySet().removeIf(key -> key.getTableKey().equals(tableKey));
+    }
+
+    /**
+     * 批量处理canal消息，先按Header（库、表、事件类型、entry类型）匹配subscribe注册的订阅，只解析匹配的entry的RowChange
+     * 已订阅的表收到DDL时使其绑定计划失效（不解析RowChange）；设置了重放过滤时，已处理过的binlog位置直接跳过
+     *
+     * @param entries 一批canal消息，按顺序处理
+     * @throws Exception 解析RowChange失败或handler抛出的异常
+     */
+    public void processEntries(List<CanalEntry.Entry> entries) throws Exception {
+        if (CollectionUtils.isEmpty(entries)) {
+            return;
+        }
+        for (CanalEntry.Entry entry : entries) {
+            if (entry.getEntryType() != CanalEntry.EntryType.ROWDATA) {
+                continue;
+            }
+            CanalEntry.Header header = entry.getHeader();
+            CanalReplayFilter filter = replayFilter;
+            if (filter != null && filter.isDuplicate(header)) {
+                continue;
+            }
+            Map<String, TableSubscription> tables = subscriptions.get(header.getSchemaName());
+            TableSubscription subscription = tables == null ? null : tables.get(header.getTableName());
+            if (subscription != null && !handleDdl(entry, null) && subscription.accepts(header.getEventType())) {
+                CanalEntry.RowChange rowChange = CanalEntry.RowChange.parseFrom(entry.getStoreValue());
+                subscription.handle(entry, rowChange);
+            }
+            if (filter != null) {
+                filter.markProcessed(header);
+            }
+        }
+    }
+
+    /**
+     * @return processEntries使用的重放过滤，未设置时为null
+     */
+    public CanalReplayFilter getReplayFilter() {
+        return replayFilter;
+    }
+
+    /**
+     * 设置processEntries使用的重放过滤：已处理过的位置在解析前跳过，处理完成（含未订阅的表）后记录位置
+     *
+     * @param replayFilter 为null时不过滤
+     */
+    public void setReplayFilter(CanalReplayFilter replayFilter) {
+        this.replayFilter = replayFilter;
+    }
+
+    /**
+     * @return 转换指标，默认为InMemoryCanalMetrics
+     */
+    public CanalMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 替换转换指标实现，不需要时可设置为CanalMetrics.NOOP
+     *
+     * @param metrics
+     */
+    public void setMetrics(CanalMetrics metrics) {
+        this.metrics = metrics == null ? CanalMetrics.NOOP : metrics;
+    }
+
+    /**
+     * bean初始化完成后按固定顺序调用registerConverters、aliasClzFields、registerSubscriptions、registerAnnotatedHandlers，
+     * 订阅及注解handler预先生成的绑定器使用已注册的转换器和别名。
+     * 同一个类中多个@PostConstruct方法的执行顺序没有保证，因此只有本方法标注@PostConstruct，子类重写以上方法时不要再标注
+     */
+    @PostConstruct
+    protected void initialize() {
+        registerConverters();
+        aliasClzFields();
+        registerSubscriptions();
+        registerAnnotatedHandlers();
     }
 
     /**
      * bean初始化完成后注册需要的转换器，已默认添加Date（格式：yyyy-MM-dd HH:mm:ss）转换器
+     * int/long/double/boolean/BigDecimal/Date/LocalDateTime等常用类型已内置专用转换，注册了同一目标类型的转换器时以注册的为准
      * 在方法体内，如下使用：
      * <pre>
      *    addConverter(new Converter<String, Date>() {
@@ -98,7 +477,6 @@ public abstract class AbstractCanalLogMsgProcessor {
      *    });
      * </pre>
      */
-    @PostConstruct
     protected void registerConverters() {
 
     }
@@ -106,11 +484,34 @@ public abstract class AbstractCanalLogMsgProcessor {
     /**
      * 给class对应field设置别名
      */
-    @PostConstruct
     protected void aliasClzFields() {
 
     }
 
+    /**
+     * 注册订阅，在方法体内调用subscribe(schemaName, tableName, handler, eventTypes)
+     */
+    protected void registerSubscriptions() {
+
+    }
+
+    /**
+     * 将标注了@CanalTableHandler的方法注册为订阅
+     * 启动时完成方法校验、MethodHandle及bean绑定器的生成，处理消息时不再反射
+     */
+    protected void registerAnnotatedHandlers() {
+        Class<?> tmpClz = getClass();
+        while (tmpClz != null && tmpClz != AbstractCanalLogMsgProcessor.class) {
+            for (Method method : tmpClz.getDeclaredMethods()) {
+                CanalTableHandler annotation = method.getAnnotation(CanalTableHandler.class);
+                if (annotation != null) {
+                    subscribe(annotation.schema(), annotation.table(), createAnnotatedHandler(method, annotation.beanClass()), annotation.eventTypes());
+                }
+            }
+            tmpClz = tmpClz.getSuperclass();
+        }
+    }
+
     /**
      * 给field名称设置别名，将忽略大小写并去除下划线
      * 不建议业务逻辑中设置别名，请重写aliasClzFields方法
@@ -126,9 +527,26 @@ public abstract class AbstractCanalLogMsgProcessor {
      * @param <T>
      */
     protected <T> void aliasField(Class<T> clz, String originName, String aliasName) {
-        Map<String, Field> clzFields = getClzFields(clz);
-        aliasName = aliasName.toLowerCase().replace("_", "");
-        clzFields.put(aliasName, clzFields.get(originName.toLowerCase()));
+        // 别名变化后生成新的绑定器快照，不修改正在使用的快照
+        bindingRegistry.alias(clz, originName, CanalBeanBinder.normalizeName(aliasName));
+    }
+
+    /**
+     * 预先生成class的绑定器（属性解析、MethodHandle及实例创建），避免部署后第一批消息在处理时反射
+     * 请在设置别名之后调用（之后再设置别名会重新生成绑定器），如在aliasClzFields方法末尾调用
+     *
+     * @param classes
+     * @throws IllegalStateException 无法创建实例时抛出
+     */
+    public void precompile(Class<?>... classes) {
+        for (Class<?> clz : classes) {
+            try {
+                // 创建一次实例，使实例创建的调用点完成链接
+                getBinder(clz).newInstance();
+            } catch (InstantiationException | IllegalAccessException e) {
+                throw new IllegalStateException("can't instantiate " + clz.getName(), e);
+            }
+        }
     }
 
     /**
@@ -140,67 +558,458 @@ public abstract class AbstractCanalLogMsgProcessor {
      */
     protected void addConverter(Converter converter) {
         conversionService.addConverter(converter);
+        columnConverters.addOverride(converter);
+        // 重新按新的转换器生成绑定计划
+        cachedPlans.clear();
     }
 
-    private <T> List<T> getChangesBeforeOrAfter(CanalEntry.RowChange rowChange, Class<T> clz, boolean isBefore) throws InstantiationException, IllegalAccessException {
+    /**
+     * 订阅表的变更，processEntries只解析、回调订阅的表和事件类型
+     * 不建议业务逻辑中订阅，请重写registerSubscriptions方法
+     *
+     * @param schemaName 库名
+     * @param tableName  表名
+     * @param handler
+     * @param eventTypes 为空时订阅INSERT、UPDATE、DELETE
+     */
+    protected void subscribe(String schemaName, String tableName, RowChangeHandler handler, CanalEntry.EventType... eventTypes) {
+        if (StringUtils.isBlank(schemaName) || StringUtils.isBlank(tableName) || handler == null) {
+            throw new IllegalArgumentException("schemaName, tableName or handler can't be empty.");
+        }
+        Set<CanalEntry.EventType> types = eventTypes == null || eventTypes.length == 0
+                ? EnumSet.of(CanalEntry.EventType.INSERT, CanalEntry.EventType.UPDATE, CanalEntry.EventType.DELETE)
+                : EnumSet.copyOf(Arrays.asList(eventTypes));
+        subscriptions.computeIfAbsent(schemaName, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(tableName, k -> new TableSubscription())
+                .add(types, handler);
+    }
+
+    private RowChangeHandler createAnnotatedHandler(Method method, Class<?> beanClass) {
+        Class<?>[] paramTypes = method.getParameterTypes();
+        boolean withEntry = paramTypes.length == 2 && paramTypes[0] == CanalEntry.Entry.class;
+        if (!(withEntry || paramTypes.length == 1) || paramTypes[paramTypes.length - 1] != List.class) {
+            throw new IllegalStateException("@CanalTableHandler method " + method + " must accept (List<RowDataPair<T>>) or (CanalEntry.Entry, List<RowDataPair<T>>)");
+        }
+        MethodHandle handle;
+        try {
+            method.setAccessible(true);
+            handle = MethodHandles.lookup().unreflect(method).bindTo(this);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("can't access @CanalTableHandler method " + method, e);
+        }
+        if (!withEntry) {
+            handle = MethodHandles.dropArguments(handle, 0, CanalEntry.Entry.class);
+        }
+        MethodHandle invoker = handle.asType(MethodType.methodType(void.class, CanalEntry.Entry.class, List.class));
+        // 启动时生成绑定器
+        getBinder(beanClass);
+        return (entry, rowChange) -> {
+            List<? extends RowDataPair<?>> changes = getChanges(entry, rowChange, beanClass);
+            try {
+                invoker.invokeExact(entry, (List) changes);
+            } catch (Exception | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+
+    private <T> List<T> getChangesBeforeOrAfter(CanalEntry.Entry entry, CanalEntry.RowChange rowChange, Class<T> clz, boolean isBefore) throws InstantiationException, IllegalAccessException {
         if (rowChange == null || clz == null || rowChange.getRowDatasList() == null) {
             throw new IllegalArgumentException("rowChange or clz can't be empty.");
         }
-        Map<String, Field> beanFields = getClzFields(clz);
         List<T> result = Lists.newArrayList();
+        if (handleDdl(entry, rowChange)) {
+            return result;
+        }
+        String tableKey = getTableKey(entry);
+        CanalBeanBinder<T> binder = getBinder(clz);
+        CanalBindingPlan<T> plan = null;
+        long start = System.nanoTime();
+        long unmapped = 0;
         for (CanalEntry.RowData rowData : rowChange.getRowDatasList()) {
             List<CanalEntry.Column> columnsList = isBefore ? rowData.getBeforeColumnsList() : rowData.getAfterColumnsList();
-            T data = convertRowData(columnsList, beanFields, clz);
+            plan = getBindingPlan(tableKey, binder, columnsList, plan);
+            T data = convertRowData(columnsList, plan);
+            unmapped += unmappedCount(columnsList, plan);
             result.add(data);
         }
+        recordMetrics(tableKey, rowChange.getEventType(), result.size(), System.nanoTime() - start, unmapped);
         return result;
     }
 
-    private <T> Map<String, Field> getClzFields(Class<T> clz) {
-        Map<String, Field> beanFields = cachedClzFields.get(clz.getName());
-        if (beanFields == null || beanFields.size() <= 0) {
-            beanFields = getAllFieldsForBean(clz);
-            cachedClzFields.putIfAbsent(clz.getName(), beanFields);
-            beanFields = cachedClzFields.get(clz.getName());
+    /**
+     * 供同包组件（列式解码、直接编码等）复用bean的属性解析、别名及绑定计划
+     *
+     * @param tableKey schemaName.tableName
+     * @param clz
+     * @param cols     不能为空
+     * @param current  上一次使用的计划，列数一致时直接复用，可为null
+     * @return
+     */
+    <T> CanalBindingPlan<T> resolveBindingPlan(String tableKey, Class<T> clz, List<CanalEntry.Column> cols, CanalBindingPlan<T> current) {
+        return getBindingPlan(tableKey, getBinder(clz), cols, current);
+    }
+
+    /**
+     * 供同包组件获取class当前的绑定器（属性下标、属性名）
+     *
+     * @param clz
+     * @return
+     */
+    <T> CanalBeanBinder<T> resolveBinder(Class<T> clz) {
+        return getBinder(clz);
+    }
+
+    /**
+     * 供同包组件按绑定计划将一行列数据转换为bean，转换失败时记录指标
+     *
+     * @param cols
+     * @param plan 与cols列布局一致
+     * @return cols为空时返回null
+     */
+    <T> T convertRow(List<CanalEntry.Column> cols, CanalBindingPlan<T> plan) throws IllegalAccessException, InstantiationException {
+        return convertRowData(cols, plan);
+    }
+
+    /**
+     * 供同包组件按绑定计划将ResultSet的当前行直接转换为bean，不生成Column及String，转换失败时记录指标
+     *
+     * @param rs
+     * @param plan 与ResultSet的列布局一致（按ResultSetMetaData生成）
+     * @return
+     */
+    <T> T convertRow(ResultSet rs, CanalBindingPlan<T> plan) throws SQLException, IllegalAccessException, InstantiationException {
+        T bean = plan.getBinder().newInstance();
+        int count = plan.getColumnCount();
+        for (int i = 0; i < count; i++) {
+            CanalBeanBinder.FieldSetter setter = plan.getSlot(i);
+            if (setter == null) {
+                continue;
+            }
+            try {
+                plan.getConverter(i).write(bean, setter, rs, i + 1);
+            } catch (RuntimeException e) {
+                metrics.recordConversionFailure(setter.getType());
+                throw e;
+            }
+        }
+        return bean;
+    }
+
+    private void recordMetrics(String tableKey, CanalEntry.EventType eventType, int rows, long elapsedNanos, long unmapped) {
+        CanalMetrics current = metrics;
+        current.recordRows(tableKey, eventType, rows, elapsedNanos);
+        current.recordUnmappedColumns(tableKey, unmapped);
+    }
+
+    private static int unmappedCount(List<CanalEntry.Column> cols, CanalBindingPlan<?> plan) {
+        return CollectionUtils.isEmpty(cols) ? 0 : plan.getUnmappedCount();
+    }
+
+    private String getTableKey(CanalEntry.Entry entry) {
+        if (entry == null) {
+            return "";
+        }
+        return entry.getHeader().getSchemaName() + "." + entry.getHeader().getTableName();
+    }
+
+    /**
+     * 获取列布局对应的绑定计划
+     * 同一个RowChange内的行来自同一个binlog事件，列布局相同，当前计划列数一致时直接复用，否则从缓存获取并校验列名，不一致时重建
+     *
+     * @param tableKey schemaName.tableName
+     * @param binder
+     * @param cols
+     * @param current  当前RowChange已使用的计划，可为null
+     * @return cols为空时返回current
+     */
+    private <T> CanalBindingPlan<T> getBindingPlan(String tableKey, CanalBeanBinder<T> binder, List<CanalEntry.Column> cols, CanalBindingPlan<T> current) {
+        if (CollectionUtils.isEmpty(cols)) {
+            return current;
+        }
+        if (current != null && current.getColumnCount() == cols.size()) {
+            return current;
+        }
+        CanalBindingPlan.Key key = new CanalBindingPlan.Key(tableKey, binder.getClz(), cols.size());
+        @SuppressWarnings("unchecked")
+        CanalBindingPlan<T> plan = (CanalBindingPlan<T>) cachedPlans.get(key);
+        if (plan == null || plan.getBinder() != binder || !plan.matches(cols)) {
+            plan = CanalBindingPlan.create(tableKey, binder, cols, columnConverters);
+            cachedPlans.put(key, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * 获取class对应的绑定器，首次使用时生成
+     *
+     * @param clz
+     * @return
+     */
+    private <T> CanalBeanBinder<T> getBinder(Class<T> clz) {
+        return bindingRegistry.getBinder(clz);
+    }
+
+    private <T> T convertRowData(List<CanalEntry.Column> cols, CanalBindingPlan<T> plan) throws IllegalAccessException, InstantiationException {
+        if (CollectionUtils.isEmpty(cols)) {
+            return null;
+        }
+        T bean = plan.getBinder().newInstance();
+        fillRowData(cols, plan, bean);
+        return bean;
+    }
+
+    private <T> void fillRowData(List<CanalEntry.Column> cols, CanalBindingPlan<T> plan, T bean) throws IllegalAccessException {
+        for (int i = 0; i < cols.size(); i++) {
+            CanalBeanBinder.FieldSetter setter = plan.getSlot(i);
+            if (setter == null) {
+                continue;
+            }
+            try {
+                plan.getConverter(i).write(bean, setter, cols.get(i));
+            } catch (RuntimeException e) {
+                metrics.recordConversionFailure(setter.getType());
+                throw e;
+            }
         }
-        return beanFields;
     }
 
-    private <T> T convertRowData(List<CanalEntry.Column> cols, Map<String, Field> beanFields, Class<T> clz) throws IllegalAccessException, InstantiationException {
+    /**
+     * 只转换改变的列和主键列，改变的列对应属性下标记入changedFields
+     */
+    private <T> T convertChangedColumns(List<CanalEntry.Column> cols, CanalBindingPlan<T> plan, BitSet changedFields) throws IllegalAccessException, InstantiationException {
         if (CollectionUtils.isEmpty(cols)) {
             return null;
         }
-        T bean = clz.newInstance();
-        for (CanalEntry.Column col : cols) {
-            String name = col.getName().toLowerCase().replace("_", "");
-            String value = col.getValue();
-            Field field = beanFields.get(name);
-            if (field == null) {
+        T bean = plan.getBinder().newInstance();
+        for (int i = 0; i < cols.size(); i++) {
+            CanalBeanBinder.FieldSetter setter = plan.getSlot(i);
+            if (setter == null) {
+                continue;
+            }
+            CanalEntry.Column col = cols.get(i);
+            boolean updated = col.getUpdated();
+            if (!updated && !col.getIsKey()) {
                 continue;
             }
-            field.set(bean, value == null ? null : conversionService.convert(value, field.getType()));
+            try {
+                plan.getConverter(i).write(bean, setter, col);
+            } catch (RuntimeException e) {
+                metrics.recordConversionFailure(setter.getType());
+                throw e;
+            }
+            if (updated) {
+                changedFields.set(setter.getIndex());
+            }
         }
         return bean;
     }
 
-    private <T> Map<String, Field> getAllFieldsForBean(Class<T> clz) {
-        Map<String, Field> result = Maps.newHashMap();
-        Class tmpClz = clz;
-        // 不获取Object层的属性
-        String finalParent = "java.lang.object";
-        while (tmpClz != null && !tmpClz.getName().toLowerCase().equals(finalParent)) {
-            // 只获取bean普通属性
-            for (Field field : tmpClz.getDeclaredFields()) {
-                // 不在设置数据时设置访问权限
-                field.setAccessible(true);
-                int modifiers = field.getModifiers();
-                if (modifiers == Modifier.PUBLIC || modifiers == Modifier.PRIVATE || modifiers == Modifier.PROTECTED) {
-                    result.put(field.getName().toLowerCase(), field);
+    /**
+     * RowChange处理器，见subscribe
+     */
+    @FunctionalInterface
+    public interface RowChangeHandler {
+        /**
+         * @param entry     canal消息，可从Header获取库、表、binlog位置等
+         * @param rowChange 已解析的行变更
+         * @throws Exception
+         */
+        void handle(CanalEntry.Entry entry, CanalEntry.RowChange rowChange) throws Exception;
+    }
+
+    /**
+     * 一张表的订阅，同一张表可注册多个handler
+     */
+    private static class TableSubscription {
+        private volatile Set<CanalEntry.EventType> eventTypes = EnumSet.noneOf(CanalEntry.EventType.class);
+        private final List<Registration> registrations = new CopyOnWriteArrayList<>();
+
+        synchronized void add(Set<CanalEntry.EventType> types, RowChangeHandler handler) {
+            Set<CanalEntry.EventType> all = EnumSet.copyOf(types);
+            all.addAll(eventTypes);
+            registrations.add(new Registration(types, handler));
+            eventTypes = all;
+        }
+
+        boolean accepts(CanalEntry.EventType eventType) {
+            return eventTypes.contains(eventType);
+        }
+
+        void handle(CanalEntry.Entry entry, CanalEntry.RowChange rowChange) throws Exception {
+            CanalEntry.EventType eventType = entry.getHeader().getEventType();
+            for (Registration registration : registrations) {
+                if (registration.eventTypes.contains(eventType)) {
+                    registration.handler.handle(entry, rowChange);
                 }
             }
-            tmpClz = tmpClz.getSuperclass();
         }
-        return result;
+    }
+
+    private static class Registration {
+        private final Set<CanalEntry.EventType> eventTypes;
+        private final RowChangeHandler handler;
+
+        Registration(Set<CanalEntry.EventType> eventTypes, RowChangeHandler handler) {
+            this.eventTypes = eventTypes;
+            this.handler = handler;
+        }
+    }
+
+    /**
+     * 逐行转换的迭代器，同一RowChange内复用绑定计划
+     * 各行可在不同线程上转换（见CanalPartitionedDispatcher），beforePlan/afterPlan只作缓存，并发覆盖不影响正确性
+     */
+    private class LazyRowIterator<T> implements Iterator<RowDataPair<T>> {
+        private final String tableKey;
+        private final CanalEntry.EventType eventType;
+        private final CanalBeanBinder<T> binder;
+        private final List<CanalEntry.RowData> rowDatas;
+        private int index;
+        private CanalBindingPlan<T> beforePlan;
+        private CanalBindingPlan<T> afterPlan;
+        /**
+         * 转换耗时及跳过的列，遍历完时记录到指标；各行可能在不同线程上转换，使用原子累加
+         */
+        private final LongAdder elapsedNanos = new LongAdder();
+        private final LongAdder unmapped = new LongAdder();
+        private boolean metricsFlushed;
+
+        LazyRowIterator(String tableKey, CanalEntry.EventType eventType, CanalBeanBinder<T> binder, List<CanalEntry.RowData> rowDatas) {
+            this.tableKey = tableKey;
+            this.eventType = eventType;
+            this.binder = binder;
+            this.rowDatas = rowDatas;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (index < rowDatas.size()) {
+                return true;
+            }
+            flushMetrics(rowDatas.size());
+            return false;
+        }
+
+        void flushMetrics(int rows) {
+            if (!metricsFlushed) {
+                metricsFlushed = true;
+                recordMetrics(tableKey, eventType, rows, elapsedNanos.sum(), unmapped.sum());
+            }
+        }
+
+        @Override
+        public RowDataPair<T> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return new LazyRowDataPair<>(this, rowDatas.get(index++));
+        }
+
+        /**
+         * @param reuse 复用的bean，为null时新建
+         */
+        T convert(List<CanalEntry.Column> cols, boolean isBefore, T reuse) {
+            if (CollectionUtils.isEmpty(cols)) {
+                return null;
+            }
+            long start = System.nanoTime();
+            try {
+                CanalBindingPlan<T> plan;
+                if (isBefore) {
+                    plan = beforePlan = getBindingPlan(tableKey, binder, cols, beforePlan);
+                } else {
+                    plan = afterPlan = getBindingPlan(tableKey, binder, cols, afterPlan);
+                }
+                unmapped.add(plan.getUnmappedCount());
+                if (reuse == null) {
+                    return convertRowData(cols, plan);
+                }
+                binder.reset(reuse);
+                fillRowData(cols, plan, reuse);
+                return reuse;
+            } catch (InstantiationException | IllegalAccessException e) {
+                throw new IllegalStateException("convert canal row data to " + binder.getClz().getName() + " failed", e);
+            } finally {
+                elapsedNanos.add(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * before/after在首次获取时才转换；复用模式下转换到固定的bean实例，通过reset切换到下一行
+     */
+    private static class LazyRowDataPair<T> extends RowDataPair<T> {
+        private final LazyRowIterator<T> iterator;
+        private final T reusedBefore;
+        private final T reusedAfter;
+        private CanalEntry.RowData rowData;
+        private boolean beforeResolved;
+        private boolean afterResolved;
+
+        LazyRowDataPair(LazyRowIterator<T> iterator, CanalEntry.RowData rowData) {
+            this(iterator, rowData, null, null);
+        }
+
+        LazyRowDataPair(LazyRowIterator<T> iterator, CanalEntry.RowData rowData, T reusedBefore, T reusedAfter) {
+            super(null, null);
+            this.iterator = iterator;
+            this.rowData = rowData;
+            this.reusedBefore = reusedBefore;
+            this.reusedAfter = reusedAfter;
+        }
+
+        void reset(CanalEntry.RowData rowData) {
+            this.rowData = rowData;
+            beforeResolved = false;
+            afterResolved = false;
+            super.setBefore(null);
+            super.setAfter(null);
+        }
+
+        @Override
+        public T getBefore() {
+            if (!beforeResolved) {
+                setBefore(iterator.convert(rowData.getBeforeColumnsList(), true, reusedBefore));
+            }
+            return super.getBefore();
+        }
+
+        @Override
+        public T getAfter() {
+            if (!afterResolved) {
+                setAfter(iterator.convert(rowData.getAfterColumnsList(), false, reusedAfter));
+            }
+            return super.getAfter();
+        }
+
+        @Override
+        public void setBefore(T before) {
+            beforeResolved = true;
+            super.setBefore(before);
+        }
+
+        @Override
+        public void setAfter(T after) {
+            afterResolved = true;
+            super.setAfter(after);
+        }
+    }
+
+    /**
+     * 线程内复用的bean实例，每个class一组
+     */
+    private static class ReusableBeans {
+        private final Object before;
+        private final Object after;
+        private boolean inUse;
+
+        ReusableBeans(Object before, Object after) {
+            this.before = before;
+            this.after = after;
+        }
     }
 
     @Getter
@@ -214,4 +1023,50 @@ public abstract class AbstractCanalLogMsgProcessor {
             this.after = after;
         }
     }
+
+    /**
+     * UPDATE事件中改变后的bean及改变的属性
+     */
+    @Getter
+    public static class ChangedRow<T> {
+        /**
+         * 只赋值了改变的列和主键列
+         */
+        private final T after;
+        /**
+         * 改变的属性下标集合，下标对应属性名见fieldNames
+         */
+        private final BitSet changedFields;
+        private final String[] fieldNames;
+
+        public ChangedRow(T after, BitSet changedFields, String[] fieldNames) {
+            this.after = after;
+            this.changedFields = changedFields;
+            this.fieldNames = fieldNames;
+        }
+
+        /**
+         * @param fieldName bean属性名
+         * @return 属性是否改变
+         */
+        public boolean isChanged(String fieldName) {
+            for (int i = changedFields.nextSetBit(0); i >= 0; i = changedFields.nextSetBit(i + 1)) {
+                if (fieldNames[i].equals(fieldName)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return 改变的bean属性名
+         */
+        public List<String> getChangedFieldNames() {
+            List<String> result = Lists.newArrayListWithCapacity(changedFields.cardinality());
+            for (int i = changedFields.nextSetBit(0); i >= 0; i = changedFields.nextSetBit(i + 1)) {
+                result.add(fieldNames[i]);
+            }
+            return result;
+        }
+    }
 }
@@ -0,0 +1,392 @@
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * bean绑定器，每个bean class首次使用时生成一个
+ * <p>
+ * 实例创建优先使用LambdaMetafactory生成的Supplier，热路径上不再走反射；
+ * 属性赋值与原来的Field.set语义一致，直接写属性，不调用setXxx方法（setter中的校验、副作用不会执行），
+ * 使用unreflectSetter得到的MethodHandle，基本类型属性另有不装箱的MethodHandle（LambdaMetafactory不支持属性访问的MethodHandle）；
+ * 无法生成时（如安全限制）回退为原来的反射方式
+ * </p>
+ *
+ * @param <T> bean类型
+ */
+final class CanalBeanBinder<T> {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private final Class<T> clz;
+    private final Instantiator<T> instantiator;
+    /**
+     * 属性名（小写、去下划线）或别名 -> setter
+     */
+    private final Map<String, FieldSetter> setters;
+    /**
+     * 属性下标（FieldSetter.getIndex()） -> 属性名
+     */
+    private final String[] fieldNames;
+    /**
+     * 属性下标 -> setter，每个属性一个
+     */
+    private final FieldSetter[] fieldSetters;
+
+    private CanalBeanBinder(Class<T> clz, Instantiator<T> instantiator, Map<String, FieldSetter> setters, String[] fieldNames, FieldSetter[] fieldSetters) {
+        this.clz = clz;
+        this.instantiator = instantiator;
+        this.setters = setters;
+        this.fieldNames = fieldNames;
+        this.fieldSetters = fieldSetters;
+    }
+
+    /**
+     * 根据已解析的属性（含别名）生成绑定器，同一个Field只生成一个setter
+     *
+     * @param clz
+     * @param beanFields 属性名（小写、去下划线）或别名 -> Field
+     * @return
+     */
+    static <T> CanalBeanBinder<T> create(Class<T> clz, Map<String, Field> beanFields) {
+        Map<Field, FieldSetter> byField = new HashMap<>();
+        Map<String, FieldSetter> setters = new HashMap<>();
+        List<String> fieldNames = new ArrayList<>();
+        List<FieldSetter> fieldSetters = new ArrayList<>();
+        for (Map.Entry<String, Field> entry : beanFields.entrySet()) {
+            Field field = entry.getValue();
+            if (field == null) {
+                continue;
+            }
+            FieldSetter setter = byField.get(field);
+            if (setter == null) {
+                setter = createSetter(field, fieldNames.size());
+                fieldNames.add(field.getName());
+                fieldSetters.add(setter);
+                byField.put(field, setter);
+            }
+            setters.put(entry.getKey(), setter);
+        }
+        return new CanalBeanBinder<>(clz, createInstantiator(clz), Collections.unmodifiableMap(setters),
+                fieldNames.toArray(new String[0]), fieldSetters.toArray(new FieldSetter[0]));
+    }
+
+    /**
+     * 列名/属性名统一为小写并去除下划线
+     *
+     * @param name
+     * @return
+     */
+    static String normalizeName(String name) {
+        return name.toLowerCase().replace("_", "");
+    }
+
+    Class<T> getClz() {
+        return clz;
+    }
+
+    T newInstance() throws InstantiationException, IllegalAccessException {
+        return instantiator.newInstance();
+    }
+
+    /**
+     * 将bean的所有已绑定属性重置为默认值（null、0、false），用于复用bean实例
+     *
+     * @param bean
+     * @throws IllegalAccessException
+     */
+    void reset(T bean) throws IllegalAccessException {
+        for (FieldSetter setter : fieldSetters) {
+            setter.reset(bean);
+        }
+    }
+
+    /**
+     * @return 属性下标 -> 属性名，不可修改
+     */
+    String[] getFieldNames() {
+        return fieldNames;
+    }
+
+    /**
+     * @param name 属性名（小写、去下划线）或别名
+     * @return 没有对应属性时返回null
+     */
+    FieldSetter getSetter(String name) {
+        return setters.get(name);
+    }
+
+    private static <T> Instantiator<T> createInstantiator(Class<T> clz) {
+        Constructor<T> constructor;
+        try {
+            constructor = clz.getDeclaredConstructor();
+        } catch (NoSuchMethodException e) {
+            // 没有无参构造，保持与clz.newInstance()一致的报错
+            return clz::newInstance;
+        }
+        try {
+            constructor.setAccessible(true);
+            MethodHandle handle = LOOKUP.unreflectConstructor(constructor);
+            if (Modifier.isPublic(clz.getModifiers()) && Modifier.isPublic(constructor.getModifiers())) {
+                CallSite site = LambdaMetafactory.metafactory(LOOKUP, "get", MethodType.methodType(Supplier.class),
+                        MethodType.methodType(Object.class), handle, MethodType.methodType(clz));
+                @SuppressWarnings("unchecked")
+                Supplier<T> supplier = (Supplier<T>) site.getTarget().invoke();
+                return supplier::get;
+            }
+            return new MethodHandleInstantiator<>(handle.asType(MethodType.methodType(Object.class)));
+        } catch (Throwable e) {
+            return new ReflectiveInstantiator<>(constructor);
+        }
+    }
+
+    private static FieldSetter createSetter(Field field, int index) {
+        try {
+            field.setAccessible(true);
+            MethodHandle handle = LOOKUP.unreflectSetter(field);
+            MethodHandle primitiveHandle = field.getType().isPrimitive()
+                    ? handle.asType(MethodType.methodType(void.class, Object.class, field.getType())) : null;
+            return new MethodHandleSetter(field, index, handle.asType(SETTER_TYPE), primitiveHandle);
+        } catch (Throwable e) {
+            return new ReflectiveSetter(field, index);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Instantiator<T> {
+        T newInstance() throws InstantiationException, IllegalAccessException;
+    }
+
+    private static class MethodHandleInstantiator<T> implements Instantiator<T> {
+        private final MethodHandle handle;
+
+        MethodHandleInstantiator(MethodHandle handle) {
+            this.handle = handle;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T newInstance() throws InstantiationException {
+            try {
+                return (T) (Object) handle.invokeExact();
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                InstantiationException ex = new InstantiationException(e.getMessage());
+                ex.initCause(e);
+                throw ex;
+            }
+        }
+    }
+
+    private static class ReflectiveInstantiator<T> implements Instantiator<T> {
+        private final Constructor<T> constructor;
+
+        ReflectiveInstantiator(Constructor<T> constructor) {
+            this.constructor = constructor;
+        }
+
+        @Override
+        public T newInstance() throws InstantiationException, IllegalAccessException {
+            try {
+                return constructor.newInstance();
+            } catch (java.lang.reflect.InvocationTargetException e) {
+                InstantiationException ex = new InstantiationException(e.getMessage());
+                ex.initCause(e.getCause());
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * 属性赋值，基本类型属性可使用setInt等方法直接赋值，避免装箱；调用的方法需与属性类型一致
+     */
+    abstract static class FieldSetter {
+        private final Field field;
+        private final int index;
+
+        FieldSetter(Field field, int index) {
+            this.field = field;
+            this.index = index;
+        }
+
+        Field getField() {
+            return field;
+        }
+
+        /**
+         * @return 属性在绑定器内的下标，从0开始连续编号
+         */
+        int getIndex() {
+            return index;
+        }
+
+        Class<?> getType() {
+            return field.getType();
+        }
+
+        /**
+         * 重置为默认值
+         */
+        void reset(Object bean) throws IllegalAccessException {
+            Class<?> type = getType();
+            if (!type.isPrimitive()) {
+                set(bean, null);
+            } else if (type == int.class) {
+                setInt(bean, 0);
+            } else if (type == long.class) {
+                setLong(bean, 0L);
+            } else if (type == double.class) {
+                setDouble(bean, 0D);
+            } else if (type == float.class) {
+                setFloat(bean, 0F);
+            } else if (type == boolean.class) {
+                setBoolean(bean, false);
+            } else if (type == short.class) {
+                set(bean, (short) 0);
+            } else if (type == byte.class) {
+                set(bean, (byte) 0);
+            } else {
+                set(bean, (char) 0);
+            }
+        }
+
+        abstract void set(Object bean, Object value) throws IllegalAccessException;
+
+        abstract void setInt(Object bean, int value) throws IllegalAccessException;
+
+        abstract void setLong(Object bean, long value) throws IllegalAccessException;
+
+        abstract void setFloat(Object bean, float value) throws IllegalAccessException;
+
+        abstract void setDouble(Object bean, double value) throws IllegalAccessException;
+
+        abstract void setBoolean(Object bean, boolean value) throws IllegalAccessException;
+    }
+
+    private static class MethodHandleSetter extends FieldSetter {
+        private final MethodHandle handle;
+        /**
+         * 基本类型属性的setter，类型为(Object, 基本类型)void；非基本类型为null
+         */
+        private final MethodHandle primitiveHandle;
+
+        MethodHandleSetter(Field field, int index, MethodHandle handle, MethodHandle primitiveHandle) {
+            super(field, index);
+            this.handle = handle;
+            this.primitiveHandle = primitiveHandle;
+        }
+
+        @Override
+        void set(Object bean, Object value) {
+            try {
+                handle.invokeExact(bean, value);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        void setInt(Object bean, int value) {
+            try {
+                primitiveHandle.invokeExact(bean, value);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        void setLong(Object bean, long value) {
+            try {
+                primitiveHandle.invokeExact(bean, value);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        void setFloat(Object bean, float value) {
+            try {
+                primitiveHandle.invokeExact(bean, value);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        void setDouble(Object bean, double value) {
+            try {
+                primitiveHandle.invokeExact(bean, value);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        void setBoolean(Object bean, boolean value) {
+            try {
+                primitiveHandle.invokeExact(bean, value);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static class ReflectiveSetter extends FieldSetter {
+        ReflectiveSetter(Field field, int index) {
+            super(field, index);
+        }
+
+        @Override
+        void set(Object bean, Object value) throws IllegalAccessException {
+            getField().set(bean, value);
+        }
+
+        @Override
+        void setInt(Object bean, int value) throws IllegalAccessException {
+            getField().setInt(bean, value);
+        }
+
+        @Override
+        void setLong(Object bean, long value) throws IllegalAccessException {
+            getField().setLong(bean, value);
+        }
+
+        @Override
+        void setFloat(Object bean, float value) throws IllegalAccessException {
+            getField().setFloat(bean, value);
+        }
+
+        @Override
+        void setDouble(Object bean, double value) throws IllegalAccessException {
+            getField().setDouble(bean, value);
+        }
+
+        @Override
+        void setBoolean(Object bean, boolean value) throws IllegalAccessException {
+            getField().setBoolean(bean, value);
+        }
+    }
+}
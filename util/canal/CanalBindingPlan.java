@@ -0,0 +1,140 @@
+import com.alibaba.otter.canal.protocol.CanalEntry;
+
+import java.util.List;
+
+/**
+ * 表的列布局到bean属性的绑定计划
+ * <p>
+ * 按列下标直接映射到setter，行转换时只需遍历数组，不再处理列名；
+ * 列数或列名与计划不一致、收到DDL时需重新生成
+ * </p>
+ *
+ * @param <T> bean类型
+ */
+final class CanalBindingPlan<T> {
+    private final Key key;
+    private final CanalBeanBinder<T> binder;
+    private final String[] columnNames;
+    /**
+     * 列下标 -> setter，没有对应属性的列为null
+     */
+    private final CanalBeanBinder.FieldSetter[] slots;
+    /**
+     * 列下标 -> 按属性类型解析的转换器，没有对应属性的列为null
+     */
+    private final CanalColumnConverters.ColumnConverter[] converters;
+    /**
+     * bean中没有对应属性的列数
+     */
+    private final int unmappedCount;
+
+    private CanalBindingPlan(Key key, CanalBeanBinder<T> binder, String[] columnNames, CanalBeanBinder.FieldSetter[] slots,
+                             CanalColumnConverters.ColumnConverter[] converters) {
+        this.key = key;
+        this.binder = binder;
+        this.columnNames = columnNames;
+        this.slots = slots;
+        this.converters = converters;
+        int unmapped = 0;
+        for (CanalBeanBinder.FieldSetter slot : slots) {
+            if (slot == null) {
+                unmapped++;
+            }
+        }
+        this.unmappedCount = unmapped;
+    }
+
+    static <T> CanalBindingPlan<T> create(String tableKey, CanalBeanBinder<T> binder, List<CanalEntry.Column> cols, CanalColumnConverters columnConverters) {
+        int size = cols.size();
+        String[] columnNames = new String[size];
+        CanalBeanBinder.FieldSetter[] slots = new CanalBeanBinder.FieldSetter[size];
+        CanalColumnConverters.ColumnConverter[] converters = new CanalColumnConverters.ColumnConverter[size];
+        for (int i = 0; i < size; i++) {
+            CanalEntry.Column col = cols.get(i);
+            columnNames[i] = col.getName();
+            slots[i] = binder.getSetter(CanalBeanBinder.normalizeName(col.getName()));
+            if (slots[i] != null) {
+                converters[i] = columnConverters.resolve(slots[i].getType());
+            }
+        }
+        return new CanalBindingPlan<>(new Key(tableKey, binder.getClz(), size), binder, columnNames, slots, converters);
+    }
+
+    Key getKey() {
+        return key;
+    }
+
+    CanalBeanBinder<T> getBinder() {
+        return binder;
+    }
+
+    int getUnmappedCount() {
+        return unmappedCount;
+    }
+
+    int getColumnCount() {
+        return columnNames.length;
+    }
+
+    CanalBeanBinder.FieldSetter getSlot(int index) {
+        return slots[index];
+    }
+
+    CanalColumnConverters.ColumnConverter getConverter(int index) {
+        return converters[index];
+    }
+
+    /**
+     * 列数及列名是否与计划一致
+     *
+     * @param cols
+     * @return
+     */
+    boolean matches(List<CanalEntry.Column> cols) {
+        if (cols.size() != columnNames.length) {
+            return false;
+        }
+        for (int i = 0; i < columnNames.length; i++) {
+            if (!columnNames[i].equals(cols.get(i).getName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 计划缓存key：schemaName.tableName + bean class + 列数
+     */
+    static final class Key {
+        private final String tableKey;
+        private final Class<?> clz;
+        private final int columnCount;
+
+        Key(String tableKey, Class<?> clz, int columnCount) {
+            this.tableKey = tableKey;
+            this.clz = clz;
+            this.columnCount = columnCount;
+        }
+
+        String getTableKey() {
+            return tableKey;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return columnCount == other.columnCount && clz == other.clz && tableKey.equals(other.tableKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return (tableKey.hashCode() * 31 + clz.hashCode()) * 31 + columnCount;
+        }
+    }
+}
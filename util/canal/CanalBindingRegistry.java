@@ -0,0 +1,107 @@
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * bean绑定元数据注册表，按class保存不可变的快照（属性及别名 -> Field，以及对应的绑定器）
+ * <p>
+ * 属性解析结果与类绑定（ClassValue），所有处理器共用；别名属于各处理器，设置别名时复制一份新快照并原子替换（copy-on-write），
+ * 读取时无锁，不会读到修改中的Map。新快照的绑定器是新实例，已缓存的绑定计划会因绑定器不同而重新生成
+ * </p>
+ */
+final class CanalBindingRegistry {
+    /**
+     * class -> 属性名（小写） -> Field，不可修改
+     */
+    private static final ClassValue<Map<String, Field>> CLASS_FIELDS = new ClassValue<Map<String, Field>>() {
+        @Override
+        protected Map<String, Field> computeValue(Class<?> type) {
+            return Collections.unmodifiableMap(getAllFieldsForBean(type));
+        }
+    };
+
+    private final ClassValue<AtomicReference<Snapshot<?>>> snapshots = new ClassValue<AtomicReference<Snapshot<?>>>() {
+        @Override
+        protected AtomicReference<Snapshot<?>> computeValue(Class<?> type) {
+            return new AtomicReference<>(Snapshot.create(type, CLASS_FIELDS.get(type)));
+        }
+    };
+
+    /**
+     * @param clz
+     * @return class对应的绑定器，首次使用时生成
+     */
+    @SuppressWarnings("unchecked")
+    <T> CanalBeanBinder<T> getBinder(Class<T> clz) {
+        return (CanalBeanBinder<T>) snapshots.get(clz).get().binder;
+    }
+
+    /**
+     * 设置别名，生成新快照
+     *
+     * @param clz
+     * @param originName 属性名，忽略大小写
+     * @param aliasName  已统一为小写并去除下划线
+     */
+    <T> void alias(Class<T> clz, String originName, String aliasName) {
+        AtomicReference<Snapshot<?>> ref = snapshots.get(clz);
+        while (true) {
+            Snapshot<?> current = ref.get();
+            Map<String, Field> fields = new HashMap<>(current.fields);
+            fields.put(aliasName, current.fields.get(originName.toLowerCase()));
+            if (ref.compareAndSet(current, Snapshot.create(clz, Collections.unmodifiableMap(fields)))) {
+                return;
+            }
+        }
+    }
+
+    private static <T> Map<String, Field> getAllFieldsForBean(Class<T> clz) {
+        Map<String, Field> result = new HashMap<>();
+        Class tmpClz = clz;
+        // 不获取Object层的属性
+        String finalParent = "java.lang.object";
+        while (tmpClz != null && !tmpClz.getName().toLowerCase().equals(finalParent)) {
+            // 只获取bean普通属性
+            for (Field field : tmpClz.getDeclaredFields()) {
+                if (isBindable(field)) {
+                    // 不在设置数据时设置访问权限
+                    field.setAccessible(true);
+                    result.put(field.getName().toLowerCase(), field);
+                }
+            }
+            tmpClz = tmpClz.getSuperclass();
+        }
+        return result;
+    }
+
+    /**
+     * 只绑定bean普通属性：修饰符只有public、private或protected，不含static、final、transient、volatile等
+     *
+     * @param field
+     * @return
+     */
+    static boolean isBindable(Field field) {
+        int modifiers = field.getModifiers();
+        return modifiers == Modifier.PUBLIC || modifiers == Modifier.PRIVATE || modifiers == Modifier.PROTECTED;
+    }
+
+    private static final class Snapshot<T> {
+        /**
+         * 属性名（小写、去下划线）或别名 -> Field，不可修改
+         */
+        private final Map<String, Field> fields;
+        private final CanalBeanBinder<T> binder;
+
+        private Snapshot(Map<String, Field> fields, CanalBeanBinder<T> binder) {
+            this.fields = fields;
+            this.binder = binder;
+        }
+
+        static <T> Snapshot<T> create(Class<T> clz, Map<String, Field> fields) {
+            return new Snapshot<>(fields, CanalBeanBinder.create(clz, fields));
+        }
+    }
+}
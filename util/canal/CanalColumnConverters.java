@@ -0,0 +1,472 @@
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.google.protobuf.ByteString;
+import com.tqmall.lsc.common.tools.DateUtils;
+import org.springframework.core.GenericTypeResolver;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.core.convert.support.DefaultConversionService;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 列转换器注册表，按属性类型在生成绑定计划时解析一次（与原来的DefaultConversionService一致，只由属性类型决定，不区分列的sqlType）
+ * <p>
+ * int/long/float/double/boolean/BigDecimal/Date/LocalDateTime/String使用专用转换器，基本类型属性直接赋值，不装箱；
+ * 数值、布尔、日期直接从Column.getValueBytes()解析，不生成String；
+ * 通过addConverter注册过目标类型的转换器优先，走DefaultConversionService；无法解析目标类型（如lambda）时全部走DefaultConversionService。
+ * 全量初始化时直接从ResultSet按类型读取（getInt、getTimestamp等），不生成String及Column，空值规则与Column一致
+ * </p>
+ */
+final class CanalColumnConverters {
+    private final DefaultConversionService conversionService;
+    /**
+     * 通过addConverter注册的转换器的目标类型
+     */
+    private final Set<Class<?>> overriddenTypes = ConcurrentHashMap.newKeySet();
+    private volatile boolean overrideAll;
+    private final ConcurrentHashMap<Class<?>, ColumnConverter> cachedConverters = new ConcurrentHashMap<>();
+
+    CanalColumnConverters(DefaultConversionService conversionService) {
+        this.conversionService = conversionService;
+    }
+
+    /**
+     * 记录自定义转换器，其目标类型不再使用专用转换器
+     *
+     * @param converter
+     */
+    void addOverride(Converter<?, ?> converter) {
+        Class<?>[] typeArgs = GenericTypeResolver.resolveTypeArguments(converter.getClass(), Converter.class);
+        if (typeArgs == null || typeArgs[1] == null) {
+            overrideAll = true;
+        } else {
+            overriddenTypes.add(typeArgs[1]);
+        }
+        cachedConverters.clear();
+    }
+
+    /**
+     * 获取转换器
+     *
+     * @param fieldType 属性类型
+     * @return
+     */
+    ColumnConverter resolve(Class<?> fieldType) {
+        ColumnConverter converter = cachedConverters.get(fieldType);
+        if (converter == null) {
+            converter = create(fieldType);
+            cachedConverters.putIfAbsent(fieldType, converter);
+        }
+        return converter;
+    }
+
+    private ColumnConverter create(Class<?> fieldType) {
+        if (overrideAll || overriddenTypes.contains(boxed(fieldType))) {
+            return new GenericConverter(conversionService, fieldType);
+        }
+        if (fieldType == String.class) {
+            return StringConverter.INSTANCE;
+        }
+        boolean primitive = fieldType.isPrimitive();
+        if (fieldType == int.class || fieldType == Integer.class) {
+            return new IntConverter(primitive);
+        }
+        if (fieldType == long.class || fieldType == Long.class) {
+            return new LongConverter(primitive);
+        }
+        if (fieldType == float.class || fieldType == Float.class) {
+            return new FloatConverter(primitive);
+        }
+        if (fieldType == double.class || fieldType == Double.class) {
+            return new DoubleConverter(primitive);
+        }
+        if (fieldType == boolean.class || fieldType == Boolean.class) {
+            return new BooleanConverter(primitive);
+        }
+        if (fieldType == BigDecimal.class) {
+            return BigDecimalConverter.INSTANCE;
+        }
+        if (fieldType == Date.class) {
+            return DateConverter.INSTANCE;
+        }
+        if (fieldType == LocalDateTime.class) {
+            return LocalDateTimeConverter.INSTANCE;
+        }
+        return new GenericConverter(conversionService, fieldType);
+    }
+
+    private static Class<?> boxed(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return type;
+        }
+        if (type == int.class) {
+            return Integer.class;
+        }
+        if (type == long.class) {
+            return Long.class;
+        }
+        if (type == double.class) {
+            return Double.class;
+        }
+        if (type == float.class) {
+            return Float.class;
+        }
+        if (type == boolean.class) {
+            return Boolean.class;
+        }
+        if (type == short.class) {
+            return Short.class;
+        }
+        if (type == byte.class) {
+            return Byte.class;
+        }
+        return Character.class;
+    }
+
+    /**
+     * 列值转换并赋值
+     */
+    abstract static class ColumnConverter {
+        abstract void write(Object bean, CanalBeanBinder.FieldSetter setter, CanalEntry.Column col) throws IllegalAccessException;
+
+        /**
+         * 从ResultSet当前行读取并赋值
+         *
+         * @param column 从1开始
+         */
+        abstract void write(Object bean, CanalBeanBinder.FieldSetter setter, ResultSet rs, int column) throws SQLException, IllegalAccessException;
+
+        /**
+         * 同writeNull，rs.wasNull()为true时按空值处理
+         */
+        static boolean writeNull(Object bean, CanalBeanBinder.FieldSetter setter, ResultSet rs, boolean primitive) throws SQLException, IllegalAccessException {
+            if (!rs.wasNull()) {
+                return false;
+            }
+            if (primitive) {
+                throw new IllegalArgumentException("A null value cannot be assigned to a primitive type " + setter.getType().getName() + ".");
+            }
+            setter.set(bean, null);
+            return true;
+        }
+
+        /**
+         * 列值为空（null或空串）时的处理：其他属性置为null，基本类型属性无法赋null，与DefaultConversionService一致抛出异常
+         *
+         * @return 是否为空
+         */
+        static boolean writeNull(Object bean, CanalBeanBinder.FieldSetter setter, CanalEntry.Column col, String value, boolean primitive) throws IllegalAccessException {
+            if (!col.getIsNull() && !value.isEmpty()) {
+                return false;
+            }
+            if (primitive) {
+                throw new IllegalArgumentException("A null value cannot be assigned to a primitive type " + setter.getType().getName() + ".");
+            }
+            setter.set(bean, null);
+            return true;
+        }
+
+        /**
+         * 同writeNull(bean, setter, col, value, primitive)，按字节判断空串
+         */
+        static boolean writeNull(Object bean, CanalBeanBinder.FieldSetter setter, CanalEntry.Column col, ByteString bytes, boolean primitive) throws IllegalAccessException {
+            if (!col.getIsNull() && !bytes.isEmpty()) {
+                return false;
+            }
+            if (primitive) {
+                throw new IllegalArgumentException("A null value cannot be assigned to a primitive type " + setter.getType().getName() + ".");
+            }
+            setter.set(bean, null);
+            return true;
+        }
+    }
+
+    private static class StringConverter extends ColumnConverter {
+        static final StringConverter INSTANCE = new StringConverter();
+
+        @Override
+        void write(Object bean, CanalBeanBinder.FieldSetter setter, CanalEntry.Column col) throws IllegalAccessException {
+            setter.set(bean, col.getValue());
+        }
+
+        @Override
+        void write(Object bean, CanalBeanBinder.FieldSetter setter, ResultSet rs, int column) throws SQLException, IllegalAccessException {
+            // 与canal一致，NULL为空串
+            String value = rs.getString(column);
+            setter.set(bean, value == null ? "" : value);
+        }
+    }
+
+    private static class IntConverter extends ColumnConverter {
+        private final boolean primitive;
+
+        IntConverter(boolean primitive) {
+            this.primitive = primitive;
+        }
+
+        @Override
+        void write(Object bean, CanalBeanBinder.FieldSetter setter, CanalEntry.Column col) throws IllegalAccessException {
+            ByteString value = col.getValueBytes();
+            if (writeNull(bean, setter, col, value, primitive)) {
+                return;
+            }
+            // 与DefaultConversionService一致，小数（如DECIMAL列的12.5）不截断，抛出NumberFormatException
+            int result = CanalValueParser.parseInt(value);
+            if (primitive) {
+                setter.setInt(bean, result);
+            } else {
+                setter.set(bean, result);
+            }
+        }
+
+        @Override
+        void write(Object bean, CanalBeanBinder.FieldSetter setter, ResultSet rs, int column) throws SQLException, IllegalAccessException {
+            int result = rs.getInt(column);
+            if (writeNull(bean, setter, rs, primitive)) {
+                return;
+            }
+            if (primitive) {
+                setter.setInt(bean, result);
+            } else {
+                setter.set(bean, result);
+            }
+        }
+    }
+
+    private static class LongConverter extends ColumnConverter {
+        private final boolean primitive;
+
+        LongConverter(boolean primitive) {
+            this.primitive = primitive;
+        }
+
+        @Override
+        void write(Object bean, CanalBeanBinder.FieldSetter setter, CanalEntry.Column col) throws IllegalAccessException {
+            ByteString value = col.getValueBytes();
+            if (writeNull(bean, setter, col, value, primitive)) {
+                return;
+            }
+            long result = CanalValueParser.parseLong(value);
+            if (primitive) {
+                setter.setLong(bean, result);
+            } else {
+                setter.set(bean, result);
+            }
+        }
+
+        @Override
+        void write(Object bean, CanalBeanBinder.FieldSetter setter, ResultSet rs, int column) throws SQLException, IllegalAccessException {
+            long result = rs.getLong(column);
+            if (writeNull(bean, setter, rs, primitive)) {
+                return;
+            }
+            if (primitive) {
+                setter.setLong(bean, result);
+            } else {
+                setter.set(bean, result);
+            }
+        }
+    }
+
+    private static class FloatConverter extends ColumnConverter {
+        private final boolean primitive;
+
+        FloatConverter(boolean primitive) {
+            this.primitive = primitive;
+        }
+
+        @Override
+        void write(Object bean, CanalBeanBinder.FieldSetter setter, CanalEntry.Column col) throws IllegalAccessException {
+            ByteString value = col.getValueBytes();
+            if (writeNull(bean, setter, col, value, primitive)) {
+                return;
+            }
+            float result = CanalValueParser.parseFloat(value);
+            if (primitive) {
+                setter.setFloat(bean, result);
+            } else {
+                setter.set(bean, result);
+            }
+        }
+
+        @Override
+        void write(Object bean, CanalBeanBinder.FieldSetter setter, ResultSet rs, int column) throws SQLException, IllegalAccessException {
+            float result = rs.getFloat(column);
+            if (writeNull(bean, setter, rs, primitive)) {
+                return;
+            }
+            if (primitive) {
+                setter.setFloat(bean, result);
+            } else {
+                setter.set(bean, result);
+            }
+        }
+    }
+
+    private static class DoubleConverter extends ColumnConverter {
+        private final boolean primitive;
+
+        DoubleConverter(boolean primitive) {
+            this.primitive = primitive;
+        }
+
+        @Override
+        void write(Object bean, CanalBeanBinder.FieldSetter setter, CanalEntry.Column col) throws IllegalAccessException {
+            ByteString value = col.getValueBytes();
+            if (writeNull(bean, setter, col, value, primitive)) {
+                return;
+            }
+            double result = CanalValueParser.parseDouble(value);
+            if (primitive) {
+                setter.setDouble(bean, result);
+            } else {
+                setter.set(bean, result);
+            }
+        }
+
+        @Override
+        void write(Object bean, CanalBeanBinder.FieldSetter setter, ResultSet rs, int column) throws SQLException, IllegalAccessException {
+            double result = rs.getDouble(column);
+            if (writeNull(bean, setter, rs, primitive)) {
+                return;
+            }
+            if (primitive) {
+                setter.setDouble(bean, result);
+            } else {
+                setter.set(bean, result);
+            }
+        }
+    }
+
+    private static class BooleanConverter extends ColumnConverter {
+        private final boolean primitive;
+
+        BooleanConverter(boolean primitive) {
+            this.primitive = primitive;
+        }
+
+        @Override
+        void write(Object bean, CanalBeanBinder.FieldSetter setter, CanalEntry.Column col) throws IllegalAccessException {
+            ByteString value = col.getValueBytes();
+            if (writeNull(bean, setter, col, value, primitive)) {
+                return;
+            }
+            boolean result = CanalValueParser.parseBoolean(value);
+            if (primitive) {
+                setter.setBoolean(bean, result);
+            } else {
+                setter.set(bean, result);
+            }
+        }
+
+        @Override
+        void write(Object bean, CanalBeanBinder.FieldSetter setter, ResultSet rs, int column) throws SQLException, IllegalAccessException {
+            boolean result = rs.getBoolean(column);
+            if (writeNull(bean, setter, rs, primitive)) {
+                return;
+            }
+            if (primitive) {
+                setter.setBoolean(bean, result);
+            } else {
+                setter.set(bean, result);
+            }
+        }
+    }
+
+    private static class BigDecimalConverter extends ColumnConverter {
+        static final BigDecimalConverter INSTANCE = new BigDecimalConverter();
+
+        @Override
+        void write(Object bean, CanalBeanBinder.FieldSetter setter, CanalEntry.Column col) throws IllegalAccessException {
+            String value = col.getValue();
+            if (writeNull(bean, setter, col, value, false)) {
+                return;
+            }
+            setter.set(bean, new BigDecimal(value));
+        }
+
+        @Override
+        void write(Object bean, CanalBeanBinder.FieldSetter setter, ResultSet rs, int column) throws SQLException, IllegalAccessException {
+            setter.set(bean, rs.getBigDecimal(column));
+        }
+    }
+
+    private static class DateConverter extends ColumnConverter {
+        static final DateConverter INSTANCE = new DateConverter();
+
+        private final ZoneId zone = ZoneId.systemDefault();
+
+        @Override
+        void write(Object bean, CanalBeanBinder.FieldSetter setter, CanalEntry.Column col) throws IllegalAccessException {
+            ByteString value = col.getValueBytes();
+            if (writeNull(bean, setter, col, value, false)) {
+                return;
+            }
+            LocalDateTime dateTime = CanalValueParser.parseLocalDateTime(value);
+            if (dateTime == null) {
+                setter.set(bean, DateUtils.convertStringToDate(value.toStringUtf8()));
+                return;
+            }
+            setter.set(bean, Date.from(dateTime.atZone(zone).toInstant()));
+        }
+
+        @Override
+        void write(Object bean, CanalBeanBinder.FieldSetter setter, ResultSet rs, int column) throws SQLException, IllegalAccessException {
+            Timestamp timestamp = rs.getTimestamp(column);
+            setter.set(bean, timestamp == null ? null : new Date(timestamp.getTime()));
+        }
+    }
+
+    private static class LocalDateTimeConverter extends ColumnConverter {
+        static final LocalDateTimeConverter INSTANCE = new LocalDateTimeConverter();
+
+        @Override
+        void write(Object bean, CanalBeanBinder.FieldSetter setter, CanalEntry.Column col) throws IllegalAccessException {
+            ByteString value = col.getValueBytes();
+            if (writeNull(bean, setter, col, value, false)) {
+                return;
+            }
+            LocalDateTime dateTime = CanalValueParser.parseLocalDateTime(value);
+            setter.set(bean, dateTime != null ? dateTime : LocalDateTime.parse(value.toStringUtf8().replace(' ', 'T')));
+        }
+
+        @Override
+        void write(Object bean, CanalBeanBinder.FieldSetter setter, ResultSet rs, int column) throws SQLException, IllegalAccessException {
+            Timestamp timestamp = rs.getTimestamp(column);
+            setter.set(bean, timestamp == null ? null : timestamp.toLocalDateTime());
+        }
+    }
+
+    /**
+     * 通用转换，走DefaultConversionService
+     */
+    private static class GenericConverter extends ColumnConverter {
+        private final DefaultConversionService conversionService;
+        private final Class<?> fieldType;
+
+        GenericConverter(DefaultConversionService conversionService, Class<?> fieldType) {
+            this.conversionService = conversionService;
+            this.fieldType = fieldType;
+        }
+
+        @Override
+        void write(Object bean, CanalBeanBinder.FieldSetter setter, CanalEntry.Column col) throws IllegalAccessException {
+            String value = col.getValue();
+            setter.set(bean, value == null ? null : conversionService.convert(value, fieldType));
+        }
+
+        @Override
+        void write(Object bean, CanalBeanBinder.FieldSetter setter, ResultSet rs, int column) throws SQLException, IllegalAccessException {
+            // 与canal一致，NULL按空串转换
+            String value = rs.getString(column);
+            setter.set(bean, conversionService.convert(value == null ? "" : value, fieldType));
+        }
+    }
+}
@@ -0,0 +1,404 @@
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.google.protobuf.ByteString;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一张表的一批行变更的列式数据，由CanalColumnarDecoder生成
+ * <p>
+ * 每个bean属性一列：整型为int[]/long[]，浮点为double[]，BigDecimal为long[]非标度值加统一的标度（不经过double，无精度损失），
+ * 日期为long[]（毫秒时间戳），布尔为int[]（0/1），其他类型按字典编码为int[]；每列一个null位图，行内没有该列（列布局不同）时也记为null。
+ * 整型列的解析与bean转换一致，小数值不截断，抛出NumberFormatException
+ * </p>
+ */
+public class CanalColumnarBatch {
+    private static final CanalEntry.EventType[] EVENT_TYPES = CanalEntry.EventType.values();
+
+    private final int rowCount;
+    private final byte[] eventTypes;
+    private final Map<String, ColumnVector> columns;
+
+    CanalColumnarBatch(int rowCount, byte[] eventTypes, Map<String, ColumnVector> columns) {
+        this.rowCount = rowCount;
+        this.eventTypes = eventTypes;
+        this.columns = Collections.unmodifiableMap(columns);
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @param row 行号
+     * @return 该行的事件类型
+     */
+    public CanalEntry.EventType getEventType(int row) {
+        return EVENT_TYPES[eventTypes[row]];
+    }
+
+    /**
+     * @return 列名（bean属性名），按首次出现的顺序
+     */
+    public List<String> getColumnNames() {
+        return new ArrayList<>(columns.keySet());
+    }
+
+    /**
+     * @param fieldName bean属性名
+     * @return 不存在时返回null
+     */
+    public ColumnVector getColumn(String fieldName) {
+        return columns.get(fieldName);
+    }
+
+    /**
+     * 列向量
+     */
+    public abstract static class ColumnVector {
+        private final String name;
+        /**
+         * 初始全部为null，写入非空值时清除
+         */
+        final BitSet nulls;
+
+        ColumnVector(String name, int rowCount) {
+            this.name = name;
+            this.nulls = new BitSet(rowCount);
+            this.nulls.set(0, rowCount);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isNull(int row) {
+            return nulls.get(row);
+        }
+
+        /**
+         * @return null位图，不可修改
+         */
+        public BitSet getNulls() {
+            return (BitSet) nulls.clone();
+        }
+
+        abstract void set(int row, CanalEntry.Column col);
+    }
+
+    public static class IntVector extends ColumnVector {
+        final int[] values;
+
+        IntVector(String name, int rowCount) {
+            super(name, rowCount);
+            this.values = new int[rowCount];
+        }
+
+        /**
+         * @return 值数组，null的行为0，不要修改
+         */
+        public int[] getValues() {
+            return values;
+        }
+
+        @Override
+        void set(int row, CanalEntry.Column col) {
+            ByteString value = col.getValueBytes();
+            if (col.getIsNull() || value.isEmpty()) {
+                return;
+            }
+            values[row] = CanalValueParser.parseInt(value);
+            nulls.clear(row);
+        }
+    }
+
+    /**
+     * 布尔列，true为1，false为0
+     */
+    public static class BooleanVector extends IntVector {
+        BooleanVector(String name, int rowCount) {
+            super(name, rowCount);
+        }
+
+        @Override
+        void set(int row, CanalEntry.Column col) {
+            ByteString value = col.getValueBytes();
+            if (col.getIsNull() || value.isEmpty()) {
+                return;
+            }
+            values[row] = CanalValueParser.parseBoolean(value) ? 1 : 0;
+            nulls.clear(row);
+        }
+    }
+
+    public static class LongVector extends ColumnVector {
+        final long[] values;
+
+        LongVector(String name, int rowCount) {
+            super(name, rowCount);
+            this.values = new long[rowCount];
+        }
+
+        /**
+         * @return 值数组，null的行为0，不要修改
+         */
+        public long[] getValues() {
+            return values;
+        }
+
+        @Override
+        void set(int row, CanalEntry.Column col) {
+            ByteString value = col.getValueBytes();
+            if (col.getIsNull() || value.isEmpty()) {
+                return;
+            }
+            values[row] = CanalValueParser.parseLong(value);
+            nulls.clear(row);
+        }
+    }
+
+    /**
+     * 日期列，值为毫秒时间戳（系统默认时区）
+     */
+    public static class TimestampVector extends LongVector {
+        private final ZoneId zone = ZoneId.systemDefault();
+
+        TimestampVector(String name, int rowCount) {
+            super(name, rowCount);
+        }
+
+        @Override
+        void set(int row, CanalEntry.Column col) {
+            ByteString value = col.getValueBytes();
+            if (col.getIsNull() || value.isEmpty()) {
+                return;
+            }
+            LocalDateTime dateTime = CanalValueParser.parseLocalDateTime(value);
+            if (dateTime == null) {
+                // 非canal标准格式（如0000-00-00 00:00:00）按null处理
+                return;
+            }
+            values[row] = dateTime.atZone(zone).toInstant().toEpochMilli();
+            nulls.clear(row);
+        }
+    }
+
+    public static class DoubleVector extends ColumnVector {
+        final double[] values;
+
+        DoubleVector(String name, int rowCount) {
+            super(name, rowCount);
+            this.values = new double[rowCount];
+        }
+
+        /**
+         * @return 值数组，null的行为0，不要修改
+         */
+        public double[] getValues() {
+            return values;
+        }
+
+        @Override
+        void set(int row, CanalEntry.Column col) {
+            ByteString value = col.getValueBytes();
+            if (col.getIsNull() || value.isEmpty()) {
+                return;
+            }
+            values[row] = CanalValueParser.parseDouble(value);
+            nulls.clear(row);
+        }
+    }
+
+    /**
+     * 定点小数列，第row行的值为unscaledValues[row] * 10^-scale
+     * <p>
+     * 整列使用同一标度（各行中最大的标度），标度较小的值放大后存储；非标度值超出long范围时抛出ArithmeticException
+     * </p>
+     */
+    public static class DecimalVector extends ColumnVector {
+        private static final long[] POWERS_OF_TEN = new long[19];
+
+        static {
+            POWERS_OF_TEN[0] = 1;
+            for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+                POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+            }
+        }
+
+        final long[] unscaledValues;
+        private int scale;
+
+        DecimalVector(String name, int rowCount) {
+            super(name, rowCount);
+            this.unscaledValues = new long[rowCount];
+        }
+
+        /**
+         * @return 非标度值数组，null的行为0，不要修改
+         */
+        public long[] getUnscaledValues() {
+            return unscaledValues;
+        }
+
+        public int getScale() {
+            return scale;
+        }
+
+        /**
+         * @return 该行的值，null的行返回null
+         */
+        public BigDecimal get(int row) {
+            return isNull(row) ? null : BigDecimal.valueOf(unscaledValues[row], scale);
+        }
+
+        @Override
+        void set(int row, CanalEntry.Column col) {
+            ByteString value = col.getValueBytes();
+            if (col.getIsNull() || value.isEmpty()) {
+                return;
+            }
+            int length = value.size();
+            int start = length > 0 && value.byteAt(0) == '-' ? 1 : 0;
+            long unscaled = 0;
+            int digits = 0;
+            int valueScale = -1;
+            for (int i = start; i < length; i++) {
+                byte b = value.byteAt(i);
+                if (b == '.' && valueScale < 0) {
+                    valueScale = 0;
+                    continue;
+                }
+                int d = b - '0';
+                if (d < 0 || d > 9 || ++digits > 18) {
+                    // 非常规格式或超过18位，按BigDecimal解析
+                    setSlow(row, new BigDecimal(value.toStringUtf8()));
+                    return;
+                }
+                unscaled = unscaled * 10 + d;
+                if (valueScale >= 0) {
+                    valueScale++;
+                }
+            }
+            if (digits == 0) {
+                throw new NumberFormatException("For input string: \"" + value.toStringUtf8() + "\"");
+            }
+            put(row, start == 1 ? -unscaled : unscaled, Math.max(valueScale, 0));
+        }
+
+        private void setSlow(int row, BigDecimal value) {
+            if (value.scale() < 0) {
+                value = value.setScale(0);
+            }
+            put(row, value.unscaledValue().longValueExact(), value.scale());
+        }
+
+        private void put(int row, long unscaled, int valueScale) {
+            if (valueScale > scale) {
+                // 已写入的值按新标度放大
+                long factor = powerOfTen(valueScale - scale);
+                for (int i = nulls.nextClearBit(0); i < row; i = nulls.nextClearBit(i + 1)) {
+                    unscaledValues[i] = Math.multiplyExact(unscaledValues[i], factor);
+                }
+                scale = valueScale;
+            } else if (valueScale < scale) {
+                unscaled = Math.multiplyExact(unscaled, powerOfTen(scale - valueScale));
+            }
+            unscaledValues[row] = unscaled;
+            nulls.clear(row);
+        }
+
+        private static long powerOfTen(int n) {
+            if (n >= POWERS_OF_TEN.length) {
+                throw new ArithmeticException("decimal scale out of range: " + n);
+            }
+            return POWERS_OF_TEN[n];
+        }
+    }
+
+    /**
+     * 字典编码的字符串列，codes[row]为dictionary下标
+     */
+    public static class DictionaryVector extends ColumnVector {
+        final int[] codes;
+        private final List<String> dictionary = new ArrayList<>();
+        private final Map<String, Integer> index = new HashMap<>();
+
+        DictionaryVector(String name, int rowCount) {
+            super(name, rowCount);
+            this.codes = new int[rowCount];
+        }
+
+        /**
+         * @return 编码数组，null的行为0，不要修改
+         */
+        public int[] getCodes() {
+            return codes;
+        }
+
+        public List<String> getDictionary() {
+            return Collections.unmodifiableList(dictionary);
+        }
+
+        /**
+         * @return 该行的字符串值，null的行返回null
+         */
+        public String get(int row) {
+            return isNull(row) ? null : dictionary.get(codes[row]);
+        }
+
+        @Override
+        void set(int row, CanalEntry.Column col) {
+            if (col.getIsNull()) {
+                return;
+            }
+            String value = col.getValue();
+            Integer code = index.get(value);
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.add(value);
+                index.put(value, code);
+            }
+            codes[row] = code;
+            nulls.clear(row);
+        }
+    }
+
+    /**
+     * 按属性类型创建列向量
+     */
+    static ColumnVector create(String name, Class<?> type, int rowCount) {
+        if (type == int.class || type == Integer.class || type == short.class || type == Short.class
+                || type == byte.class || type == Byte.class) {
+            return new IntVector(name, rowCount);
+        }
+        if (type == long.class || type == Long.class) {
+            return new LongVector(name, rowCount);
+        }
+        if (type == double.class || type == Double.class || type == float.class || type == Float.class) {
+            return new DoubleVector(name, rowCount);
+        }
+        if (type == BigDecimal.class) {
+            return new DecimalVector(name, rowCount);
+        }
+        if (type == boolean.class || type == Boolean.class) {
+            return new BooleanVector(name, rowCount);
+        }
+        if (type == Date.class || type == LocalDateTime.class) {
+            return new TimestampVector(name, rowCount);
+        }
+        return new DictionaryVector(name, rowCount);
+    }
+
+    static Map<String, ColumnVector> newColumns() {
+        return new LinkedHashMap<>();
+    }
+}
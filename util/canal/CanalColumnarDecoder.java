@@ -0,0 +1,111 @@
+import com.alibaba.otter.canal.protocol.CanalEntry;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 将一张表的RowChange解码为列式数据（CanalColumnarBatch），不创建bean
+ * <p>
+ * 列与bean属性的对应关系（属性解析、别名、列布局）与AbstractCanalLogMsgProcessor共用同一份绑定计划；
+ * 每行取改变后的数据，DELETE取改变前的数据，行的事件类型见CanalColumnarBatch.getEventType(row)
+ * </p>
+ */
+public class CanalColumnarDecoder {
+    private final AbstractCanalLogMsgProcessor processor;
+
+    /**
+     * @param processor 提供属性解析、别名及绑定计划缓存
+     */
+    public CanalColumnarDecoder(AbstractCanalLogMsgProcessor processor) {
+        if (processor == null) {
+            throw new IllegalArgumentException("processor can't be null.");
+        }
+        this.processor = processor;
+    }
+
+    /**
+     * 解码一个RowChange
+     *
+     * @param entry     不能为null，用于区分表
+     * @param rowChange
+     * @param clz       决定解码的列及列类型
+     * @return
+     */
+    public CanalColumnarBatch decode(CanalEntry.Entry entry, CanalEntry.RowChange rowChange, Class<?> clz) {
+        CanalEntry.Header header = entry.getHeader();
+        return decode(header.getSchemaName(), header.getTableName(), Collections.singletonList(rowChange), clz);
+    }
+
+    /**
+     * 解码同一张表的一批RowChange，DDL会被跳过
+     *
+     * @param schemaName
+     * @param tableName
+     * @param rowChanges
+     * @param clz        决定解码的列及列类型
+     * @return
+     */
+    public <T> CanalColumnarBatch decode(String schemaName, String tableName, List<CanalEntry.RowChange> rowChanges, Class<T> clz) {
+        if (rowChanges == null || clz == null) {
+            throw new IllegalArgumentException("rowChanges or clz can't be empty.");
+        }
+        String tableKey = schemaName + "." + tableName;
+        int capacity = 0;
+        for (CanalEntry.RowChange rowChange : rowChanges) {
+            capacity += rowChange.getRowDatasCount();
+        }
+        byte[] eventTypes = new byte[capacity];
+        Map<String, CanalColumnarBatch.ColumnVector> columns = CanalColumnarBatch.newColumns();
+        CanalColumnarBatch.ColumnVector[] byField = null;
+        CanalBeanBinder<T> binder = null;
+        int row = 0;
+        for (CanalEntry.RowChange rowChange : rowChanges) {
+            if (rowChange.getIsDdl()) {
+                continue;
+            }
+            byte eventType = (byte) rowChange.getEventType().ordinal();
+            CanalBindingPlan<T> plan = null;
+            for (CanalEntry.RowData rowData : rowChange.getRowDatasList()) {
+                List<CanalEntry.Column> cols = rowData.getAfterColumnsCount() > 0 ? rowData.getAfterColumnsList() : rowData.getBeforeColumnsList();
+                if (cols.isEmpty()) {
+                    continue;
+                }
+                plan = processor.resolveBindingPlan(tableKey, clz, cols, plan);
+                if (plan.getBinder() != binder) {
+                    // 绑定器重新生成（如新增别名）后属性下标可能变化，按属性名重新对应
+                    binder = plan.getBinder();
+                    byField = new CanalColumnarBatch.ColumnVector[binder.getFieldNames().length];
+                    for (CanalColumnarBatch.ColumnVector vector : columns.values()) {
+                        byField[indexOf(binder.getFieldNames(), vector.getName())] = vector;
+                    }
+                }
+                for (int i = 0; i < cols.size(); i++) {
+                    CanalBeanBinder.FieldSetter slot = plan.getSlot(i);
+                    if (slot == null) {
+                        continue;
+                    }
+                    CanalColumnarBatch.ColumnVector vector = byField[slot.getIndex()];
+                    if (vector == null) {
+                        String name = slot.getField().getName();
+                        vector = CanalColumnarBatch.create(name, slot.getType(), capacity);
+                        byField[slot.getIndex()] = vector;
+                        columns.put(name, vector);
+                    }
+                    vector.set(row, cols.get(i));
+                }
+                eventTypes[row++] = eventType;
+            }
+        }
+        return new CanalColumnarBatch(row, eventTypes, columns);
+    }
+
+    private static int indexOf(String[] fieldNames, String name) {
+        for (int i = 0; i < fieldNames.length; i++) {
+            if (fieldNames[i].equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("field " + name + " not found");
+    }
+}
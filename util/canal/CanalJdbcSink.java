@@ -0,0 +1,801 @@
+import com.alibaba.otter.canal.protocol.CanalEntry;
+
+import javax.sql.DataSource;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 将canal变更批量写入另一个数据库：同表同操作（INSERT/UPDATE为upsert，DELETE为delete）的连续行合并为多行语句，
+ * 满批的语句再通过JDBC batch执行
+ * <p>
+ * 每个源事务对应一个Transaction，使用一个连接，commit时提交，保证源事务的原子性；
+ * 缓存的行数达到maxBufferedRows或时间超过maxDelayMillis时先写入（不提交），大事务不会全部缓存在内存中。
+ * 同时使用的连接数不超过maxConnections，超过时begin后的第一次写入阻塞。修改了主键的UPDATE先按改变前的主键删除再upsert
+ * </p>
+ * <p>
+ * 源事务可能跨多个canal批次，process返回时批次末尾的事务尚未提交。只有isInTransaction()为false时，
+ * 已获取的批次才全部提交，此时才能按顺序ack这些批次，否则进程崩溃会丢失已ack未提交的行。
+ * canal过滤掉了TRANSACTIONBEGIN/TRANSACTIONEND时（从未收到过事务边界），每批末尾提交，一批为一个事务
+ * </p>
+ * <pre>
+ *     sink.register("db", "user", CanalJdbcSink.TableMapping.of(User.class, "user_copy", "id"));
+ *     Message message = connector.getWithoutAck(batchSize);
+ *     unackedBatchIds.add(message.getId());
+ *     sink.process(message.getEntries());
+ *     if (!sink.isInTransaction()) {
+ *         unackedBatchIds.forEach(connector::ack);
+ *         unackedBatchIds.clear();
+ *     }
+ * </pre>
+ */
+public class CanalJdbcSink {
+    private final AbstractCanalLogMsgProcessor processor;
+    private final DataSource dataSource;
+    private final Dialect dialect;
+    private final Semaphore connections;
+    private final int maxBufferedRows;
+    private final long maxDelayNanos;
+    private final int maxRowsPerStatement;
+    /**
+     * 源表（schemaName.tableName） -> 映射
+     */
+    private final ConcurrentHashMap<String, TableMapping<?>> mappings = new ConcurrentHashMap<>();
+    /**
+     * process使用的当前源事务，跨批次保留
+     */
+    private Transaction current;
+    /**
+     * process最后提交的事务结束位置
+     */
+    private CanalEntry.Header lastCommitted;
+    /**
+     * 是否收到过TRANSACTIONBEGIN/TRANSACTIONEND，没有时每批提交
+     */
+    private boolean transactionBoundaries;
+
+    /**
+     * @param processor           process时用于转换行数据
+     * @param dataSource
+     * @param dialect             目标数据库
+     * @param maxConnections      同时使用的最大连接数
+     * @param maxBufferedRows     每个事务缓存的最大行数，达到时写入
+     * @param maxDelayMillis      缓存的最长时间，超过时写入
+     * @param maxRowsPerStatement 每条多行语句的最大行数，同时受数据库参数个数限制
+     */
+    public CanalJdbcSink(AbstractCanalLogMsgProcessor processor, DataSource dataSource, Dialect dialect, int maxConnections,
+                         int maxBufferedRows, long maxDelayMillis, int maxRowsPerStatement) {
+        if (processor == null || dataSource == null || dialect == null || maxConnections <= 0 || maxBufferedRows <= 0
+                || maxDelayMillis < 0 || maxRowsPerStatement <= 0) {
+            throw new IllegalArgumentException("processor, dataSource and dialect can't be empty, maxConnections, maxBufferedRows and maxRowsPerStatement must be positive.");
+        }
+        this.processor = processor;
+        this.dataSource = dataSource;
+        this.dialect = dialect;
+        this.connections = new Semaphore(maxConnections);
+        this.maxBufferedRows = maxBufferedRows;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.maxRowsPerStatement = maxRowsPerStatement;
+    }
+
+    /**
+     * 注册源表到目标表的映射，process只处理注册过的表
+     *
+     * @param schemaName 源库名
+     * @param tableName  源表名
+     * @param mapping
+     */
+    public void register(String schemaName, String tableName, TableMapping<?> mapping) {
+        if (schemaName == null || tableName == null || mapping == null) {
+            throw new IllegalArgumentException("schemaName, tableName or mapping can't be empty.");
+        }
+        mappings.put(schemaName + "." + tableName, mapping);
+    }
+
+    /**
+     * 按顺序处理一批canal消息：TRANSACTIONBEGIN开始事务，行数据转换后写入，TRANSACTIONEND提交；
+     * 批次末尾未结束的事务保留到下一批（未提交），见isInTransaction。从未收到过事务边界时批次末尾提交。只能由一个线程调用
+     *
+     * @param entries
+     * @return 到目前为止最后提交的事务结束位置（没有事务边界时为批次最后一条消息的位置），没有时为null
+     * @throws Exception 转换或写入失败，当前事务已回滚
+     */
+    public CanalEntry.Header process(List<CanalEntry.Entry> entries) throws Exception {
+        try {
+            for (CanalEntry.Entry entry : entries) {
+                switch (entry.getEntryType()) {
+                    case TRANSACTIONBEGIN:
+                        transactionBoundaries = true;
+                        commitCurrent();
+                        current = begin();
+                        break;
+                    case TRANSACTIONEND:
+                        transactionBoundaries = true;
+                        commitCurrent();
+                        lastCommitted = entry.getHeader();
+                        break;
+                    case ROWDATA:
+                        CanalEntry.Header header = entry.getHeader();
+                        TableMapping<?> mapping = mappings.get(header.getSchemaName() + "." + header.getTableName());
+                        if (mapping == null) {
+                            break;
+                        }
+                        CanalEntry.RowChange rowChange = CanalEntry.RowChange.parseFrom(entry.getStoreValue());
+                        if (current == null) {
+                            current = begin();
+                        }
+                        add(current, entry, rowChange, mapping);
+                        break;
+                    default:
+                        break;
+                }
+            }
+            if (!transactionBoundaries && !entries.isEmpty()) {
+                commitCurrent();
+                lastCommitted = entries.get(entries.size() - 1).getHeader();
+            }
+            flushIfExpired();
+        } catch (Exception e) {
+            abortCurrent(e);
+            throw e;
+        }
+        return lastCommitted;
+    }
+
+    /**
+     * process的当前源事务缓存时间超过maxDelayMillis时写入（不提交）。process在每批末尾会调用；
+     * 没有新消息时需以空批次调用process或调用本方法才能保证缓存时间上限，只能由调用process的线程调用
+     *
+     * @throws SQLException 写入失败，当前事务已回滚
+     */
+    public void flushIfExpired() throws SQLException {
+        if (current == null) {
+            return;
+        }
+        try {
+            current.flushIfExpired();
+        } catch (SQLException | RuntimeException e) {
+            abortCurrent(e);
+            throw e;
+        }
+    }
+
+    /**
+     * @return process是否有未提交的源事务，为true时不能ack已获取的批次
+     */
+    public boolean isInTransaction() {
+        return current != null;
+    }
+
+    /**
+     * 开始一个源事务，连接在第一次写入时获取
+     *
+     * @return
+     */
+    public Transaction begin() {
+        return new Transaction();
+    }
+
+    private <T> void add(Transaction transaction, CanalEntry.Entry entry, CanalEntry.RowChange rowChange, TableMapping<T> mapping) throws Exception {
+        transaction.add(mapping, rowChange, processor.getChanges(entry, rowChange, mapping.clz));
+    }
+
+    /**
+     * 回滚并丢弃当前事务，回滚或关闭连接的异常附加到原异常上
+     */
+    private void abortCurrent(Exception cause) {
+        if (current != null) {
+            Transaction transaction = current;
+            current = null;
+            closeSuppressed(transaction, cause);
+        }
+    }
+
+    private static void closeSuppressed(Transaction transaction, Exception cause) {
+        try {
+            transaction.close();
+        } catch (SQLException | RuntimeException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    private void commitCurrent() throws SQLException {
+        if (current != null) {
+            Transaction transaction = current;
+            current = null;
+            transaction.commit();
+        }
+    }
+
+    /**
+     * 目标数据库方言
+     */
+    public enum Dialect {
+        /**
+         * INSERT ... ON DUPLICATE KEY UPDATE，标识符用反引号
+         */
+        MYSQL(65535, '`') {
+            @Override
+            void appendUpsert(StringBuilder sql, TableMapping<?> mapping, int rows) {
+                appendInsert(sql, "INSERT INTO ", mapping, rows);
+                sql.append(" ON DUPLICATE KEY UPDATE ");
+                appendAssignments(sql, mapping, "VALUES(", ")");
+            }
+        },
+        /**
+         * MERGE INTO ... KEY (...) VALUES，标识符转为大写后用双引号，与未加引号建表时H2保存的名字一致
+         */
+        H2(100000, '"') {
+            @Override
+            String normalizeIdentifier(String name) {
+                return name.toUpperCase(Locale.ROOT);
+            }
+
+            @Override
+            void appendUpsert(StringBuilder sql, TableMapping<?> mapping, int rows) {
+                sql.append("MERGE INTO ");
+                appendIdentifier(sql, mapping.targetTable);
+                sql.append(" (");
+                appendColumns(sql, mapping.columns);
+                sql.append(") KEY (");
+                appendColumns(sql, mapping.keyColumns);
+                sql.append(") VALUES ");
+                appendValues(sql, mapping.columns.length, rows);
+            }
+        },
+        /**
+         * INSERT ... ON CONFLICT (...) DO UPDATE，需要SQLite 3.24+，标识符用双引号
+         */
+        SQLITE(999, '"') {
+            @Override
+            void appendUpsert(StringBuilder sql, TableMapping<?> mapping, int rows) {
+                appendInsert(sql, "INSERT INTO ", mapping, rows);
+                sql.append(" ON CONFLICT (");
+                appendColumns(sql, mapping.keyColumns);
+                sql.append(") DO ");
+                if (mapping.columns.length == mapping.keyColumns.length) {
+                    sql.append("NOTHING");
+                    return;
+                }
+                sql.append("UPDATE SET ");
+                appendAssignments(sql, mapping, "excluded.", "");
+            }
+        };
+
+        /**
+         * 每条语句最多的参数个数
+         */
+        private final int maxParameters;
+        /**
+         * 标识符的引号，表名、列名可以是保留字
+         */
+        private final char quote;
+
+        Dialect(int maxParameters, char quote) {
+            this.maxParameters = maxParameters;
+            this.quote = quote;
+        }
+
+        /**
+         * 加引号前的标识符转换
+         */
+        String normalizeIdentifier(String name) {
+            return name;
+        }
+
+        abstract void appendUpsert(StringBuilder sql, TableMapping<?> mapping, int rows);
+
+        String upsert(TableMapping<?> mapping, int rows) {
+            StringBuilder sql = new StringBuilder(64 + rows * mapping.columns.length * 3);
+            appendUpsert(sql, mapping, rows);
+            return sql.toString();
+        }
+
+        String delete(TableMapping<?> mapping, int rows) {
+            StringBuilder sql = new StringBuilder(32 + rows * mapping.keyColumns.length * 8);
+            sql.append("DELETE FROM ");
+            appendIdentifier(sql, mapping.targetTable);
+            sql.append(" WHERE ");
+            if (mapping.keyColumns.length == 1) {
+                appendIdentifier(sql, mapping.keyColumns[0]);
+                sql.append(" IN (?");
+                for (int i = 1; i < rows; i++) {
+                    sql.append(", ?");
+                }
+                return sql.append(')').toString();
+            }
+            for (int row = 0; row < rows; row++) {
+                sql.append(row == 0 ? "(" : " OR (");
+                for (int i = 0; i < mapping.keyColumns.length; i++) {
+                    sql.append(i == 0 ? "" : " AND ");
+                    appendIdentifier(sql, mapping.keyColumns[i]);
+                    sql.append(" = ?");
+                }
+                sql.append(')');
+            }
+            return sql.toString();
+        }
+
+        void appendInsert(StringBuilder sql, String prefix, TableMapping<?> mapping, int rows) {
+            sql.append(prefix);
+            appendIdentifier(sql, mapping.targetTable);
+            sql.append(" (");
+            appendColumns(sql, mapping.columns);
+            sql.append(") VALUES ");
+            appendValues(sql, mapping.columns.length, rows);
+        }
+
+        void appendColumns(StringBuilder sql, String[] columns) {
+            for (int i = 0; i < columns.length; i++) {
+                sql.append(i == 0 ? "" : ", ");
+                appendIdentifier(sql, columns[i]);
+            }
+        }
+
+        /**
+         * 加引号的标识符，带库名的表名（db.table）各部分分别加引号，引号字符本身双写转义
+         */
+        void appendIdentifier(StringBuilder sql, String name) {
+            int start = 0;
+            while (true) {
+                int dot = name.indexOf('.', start);
+                String part = normalizeIdentifier(dot < 0 ? name.substring(start) : name.substring(start, dot));
+                sql.append(quote);
+                for (int i = 0; i < part.length(); i++) {
+                    char c = part.charAt(i);
+                    if (c == quote) {
+                        sql.append(quote);
+                    }
+                    sql.append(c);
+                }
+                sql.append(quote);
+                if (dot < 0) {
+                    return;
+                }
+                sql.append('.');
+                start = dot + 1;
+            }
+        }
+
+        static void appendValues(StringBuilder sql, int columns, int rows) {
+            for (int row = 0; row < rows; row++) {
+                sql.append(row == 0 ? "(" : ", (");
+                for (int i = 0; i < columns; i++) {
+                    sql.append(i == 0 ? "?" : ", ?");
+                }
+                sql.append(')');
+            }
+        }
+
+        /**
+         * 非主键列的赋值，如`a` = VALUES(`a`)
+         */
+        void appendAssignments(StringBuilder sql, TableMapping<?> mapping, String prefix, String suffix) {
+            boolean first = true;
+            for (int i = 0; i < mapping.columns.length; i++) {
+                if (mapping.isKey[i] && mapping.columns.length > mapping.keyColumns.length) {
+                    continue;
+                }
+                sql.append(first ? "" : ", ");
+                appendIdentifier(sql, mapping.columns[i]);
+                sql.append(" = ").append(prefix);
+                appendIdentifier(sql, mapping.columns[i]);
+                sql.append(suffix);
+                first = false;
+            }
+        }
+    }
+
+    /**
+     * 一个源事务，非线程安全
+     */
+    public final class Transaction implements AutoCloseable {
+        /**
+         * 已缓存未写入的操作，按源顺序
+         */
+        private final List<Op> ops = new ArrayList<>();
+        private long firstBufferedNanos;
+        private Connection connection;
+        private boolean finished;
+
+        private Transaction() {
+        }
+
+        /**
+         * 缓存getChanges的结果，INSERT/UPDATE取after做upsert，DELETE取before做delete。
+         * 值取自bean，列为null（Column.getIsNull）时写入null，如转换为空字符串的null VARCHAR
+         *
+         * @param mapping
+         * @param rowChange 只处理INSERT、UPDATE、DELETE
+         * @param changes   rowChange的getChanges结果，与行一一对应
+         * @throws SQLException 达到缓存上限写入时失败
+         */
+        public <T> void add(TableMapping<T> mapping, CanalEntry.RowChange rowChange, List<AbstractCanalLogMsgProcessor.RowDataPair<T>> changes) throws SQLException {
+            if (finished) {
+                throw new IllegalStateException("transaction is finished.");
+            }
+            List<CanalEntry.RowData> rowDatas = rowChange.getRowDatasList();
+            for (int i = 0; i < changes.size(); i++) {
+                AbstractCanalLogMsgProcessor.RowDataPair<T> pair = changes.get(i);
+                CanalEntry.RowData rowData = rowDatas.get(i);
+                switch (rowChange.getEventType()) {
+                    case INSERT:
+                        buffer(new Op(mapping, false, mapping.values(pair.getAfter(), rowData.getAfterColumnsList())));
+                        break;
+                    case UPDATE:
+                        Object[] after = mapping.values(pair.getAfter(), rowData.getAfterColumnsList());
+                        if (pair.getBefore() != null) {
+                            Object[] before = mapping.values(pair.getBefore(), rowData.getBeforeColumnsList());
+                            if (!mapping.sameKey(before, after)) {
+                                buffer(new Op(mapping, true, before));
+                            }
+                        }
+                        buffer(new Op(mapping, false, after));
+                        break;
+                    case DELETE:
+                        buffer(new Op(mapping, true, mapping.values(pair.getBefore(), rowData.getBeforeColumnsList())));
+                        break;
+                    default:
+                        return;
+                }
+            }
+            flushIfExpired();
+        }
+
+        /**
+         * 缓存时间超过maxDelayMillis时写入（不提交）
+         *
+         * @throws SQLException
+         */
+        public void flushIfExpired() throws SQLException {
+            if (!ops.isEmpty() && System.nanoTime() - firstBufferedNanos >= maxDelayNanos) {
+                flush();
+            }
+        }
+
+        /**
+         * 写入缓存的操作（不提交）
+         *
+         * @throws SQLException
+         */
+        public void flush() throws SQLException {
+            if (ops.isEmpty()) {
+                return;
+            }
+            Connection conn = getConnection();
+            int start = 0;
+            while (start < ops.size()) {
+                Op first = ops.get(start);
+                int end = start + 1;
+                while (end < ops.size() && ops.get(end).mapping == first.mapping && ops.get(end).delete == first.delete) {
+                    end++;
+                }
+                execute(conn, first.mapping, first.delete, ops.subList(start, end));
+                start = end;
+            }
+            ops.clear();
+        }
+
+        /**
+         * 写入缓存的操作并提交，释放连接
+         *
+         * @throws SQLException 失败时已回滚
+         */
+        public void commit() throws SQLException {
+            try {
+                flush();
+                if (connection != null) {
+                    connection.commit();
+                }
+            } catch (SQLException | RuntimeException e) {
+                closeSuppressed(this, e);
+                throw e;
+            }
+            finished = true;
+            release();
+        }
+
+        /**
+         * 未提交时回滚并释放连接
+         */
+        @Override
+        public void close() throws SQLException {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            ops.clear();
+            try {
+                if (connection != null) {
+                    connection.rollback();
+                }
+            } catch (SQLException | RuntimeException e) {
+                try {
+                    release();
+                } catch (SQLException | RuntimeException releaseFailure) {
+                    e.addSuppressed(releaseFailure);
+                }
+                throw e;
+            }
+            release();
+        }
+
+        private void buffer(Op op) throws SQLException {
+            if (ops.isEmpty()) {
+                firstBufferedNanos = System.nanoTime();
+            }
+            ops.add(op);
+            if (ops.size() >= maxBufferedRows) {
+                flush();
+            }
+        }
+
+        /**
+         * 一段连续的同表同操作的行：满批的多行语句通过JDBC batch执行，剩余的行单独一条语句
+         */
+        private void execute(Connection conn, TableMapping<?> mapping, boolean delete, List<Op> run) throws SQLException {
+            int width = delete ? mapping.keyColumns.length : mapping.columns.length;
+            int rowsPerStatement = Math.max(1, Math.min(maxRowsPerStatement, dialect.maxParameters / width));
+            int fullStatements = run.size() / rowsPerStatement;
+            if (fullStatements > 0) {
+                String sql = delete ? dialect.delete(mapping, rowsPerStatement) : dialect.upsert(mapping, rowsPerStatement);
+                try (PreparedStatement statement = conn.prepareStatement(sql)) {
+                    for (int i = 0; i < fullStatements; i++) {
+                        bind(statement, mapping, delete, run.subList(i * rowsPerStatement, (i + 1) * rowsPerStatement));
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                }
+            }
+            int remaining = run.size() - fullStatements * rowsPerStatement;
+            if (remaining > 0) {
+                String sql = delete ? dialect.delete(mapping, remaining) : dialect.upsert(mapping, remaining);
+                try (PreparedStatement statement = conn.prepareStatement(sql)) {
+                    bind(statement, mapping, delete, run.subList(run.size() - remaining, run.size()));
+                    statement.executeUpdate();
+                }
+            }
+        }
+
+        private void bind(PreparedStatement statement, TableMapping<?> mapping, boolean delete, List<Op> rows) throws SQLException {
+            int index = 1;
+            for (Op op : rows) {
+                if (delete) {
+                    for (int key : mapping.keyIndexes) {
+                        statement.setObject(index++, op.values[key]);
+                    }
+                } else {
+                    for (Object value : op.values) {
+                        statement.setObject(index++, value);
+                    }
+                }
+            }
+        }
+
+        private Connection getConnection() throws SQLException {
+            if (connection == null) {
+                try {
+                    connections.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("interrupted while waiting for a connection", e);
+                }
+                try {
+                    connection = dataSource.getConnection();
+                    connection.setAutoCommit(false);
+                } catch (SQLException | RuntimeException e) {
+                    if (connection != null) {
+                        connection.close();
+                        connection = null;
+                    }
+                    connections.release();
+                    throw e;
+                }
+            }
+            return connection;
+        }
+
+        private void release() throws SQLException {
+            if (connection != null) {
+                try {
+                    connection.close();
+                } finally {
+                    connection = null;
+                    connections.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * bean到目标表的映射：processor转换时赋值的属性（修饰符只有public、private或protected）对应同名列（默认驼峰转下划线）
+     */
+    public static final class TableMapping<T> {
+        private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+        private final Class<T> clz;
+        private final String targetTable;
+        private final String[] columns;
+        private final String[] keyColumns;
+        private final int[] keyIndexes;
+        private final boolean[] isKey;
+        private final MethodHandle[] getters;
+        /**
+         * 源列名（小写、去下划线，同属性名） -> 列下标
+         */
+        private final Map<String, Integer> sourceIndexes;
+
+        private TableMapping(Class<T> clz, String targetTable, String[] columns, int[] keyIndexes, MethodHandle[] getters,
+                             Map<String, Integer> sourceIndexes) {
+            this.clz = clz;
+            this.targetTable = targetTable;
+            this.columns = columns;
+            this.keyIndexes = keyIndexes;
+            this.getters = getters;
+            this.sourceIndexes = sourceIndexes;
+            this.keyColumns = new String[keyIndexes.length];
+            this.isKey = new boolean[columns.length];
+            for (int i = 0; i < keyIndexes.length; i++) {
+                keyColumns[i] = columns[keyIndexes[i]];
+                isKey[keyIndexes[i]] = true;
+            }
+        }
+
+        /**
+         * 列名为属性名驼峰转下划线，如userId -> user_id
+         *
+         * @param clz
+         * @param targetTable 目标表名
+         * @param keyFields   主键属性名
+         * @return
+         */
+        public static <T> TableMapping<T> of(Class<T> clz, String targetTable, String... keyFields) {
+            return of(clz, targetTable, TableMapping::toSnakeCase, keyFields);
+        }
+
+        /**
+         * @param clz
+         * @param targetTable  目标表名
+         * @param columnNaming 属性名 -> 列名
+         * @param keyFields    主键属性名
+         * @return
+         */
+        public static <T> TableMapping<T> of(Class<T> clz, String targetTable, Function<String, String> columnNaming, String... keyFields) {
+            if (clz == null || targetTable == null || columnNaming == null || keyFields == null || keyFields.length == 0) {
+                throw new IllegalArgumentException("clz, targetTable, columnNaming and keyFields can't be empty.");
+            }
+            List<Field> fields = new ArrayList<>();
+            for (Class<?> tmpClz = clz; tmpClz != null && tmpClz != Object.class; tmpClz = tmpClz.getSuperclass()) {
+                List<Field> declared = new ArrayList<>();
+                for (Field field : tmpClz.getDeclaredFields()) {
+                    // 与processor转换时赋值的属性一致，其他属性没有值，写入会覆盖目标列
+                    if (CanalBindingRegistry.isBindable(field)) {
+                        declared.add(field);
+                    }
+                }
+                // 父类的属性在前
+                fields.addAll(0, declared);
+            }
+            String[] columns = new String[fields.size()];
+            MethodHandle[] getters = new MethodHandle[fields.size()];
+            List<String> fieldNames = new ArrayList<>();
+            Map<String, Integer> sourceIndexes = new HashMap<>();
+            for (int i = 0; i < fields.size(); i++) {
+                Field field = fields.get(i);
+                columns[i] = columnNaming.apply(field.getName());
+                fieldNames.add(field.getName());
+                sourceIndexes.put(CanalBeanBinder.normalizeName(field.getName()), i);
+                try {
+                    field.setAccessible(true);
+                    getters[i] = LOOKUP.unreflectGetter(field).asType(MethodType.methodType(Object.class, Object.class));
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException("can't access field " + field, e);
+                }
+            }
+            int[] keyIndexes = new int[keyFields.length];
+            for (int i = 0; i < keyFields.length; i++) {
+                keyIndexes[i] = fieldNames.indexOf(keyFields[i]);
+                if (keyIndexes[i] < 0) {
+                    throw new IllegalArgumentException("key field " + keyFields[i] + " not found in " + clz.getName());
+                }
+            }
+            return new TableMapping<>(clz, targetTable, columns, keyIndexes, getters, sourceIndexes);
+        }
+
+        /**
+         * @return 目标表的列名，按属性顺序
+         */
+        public List<String> getColumns() {
+            return Collections.unmodifiableList(Arrays.asList(columns));
+        }
+
+        /**
+         * @param bean    转换后的bean
+         * @param columns bean对应的行，为null的列写入null（转换器可能把null转为默认值）
+         * @return 按列顺序的JDBC参数
+         */
+        Object[] values(T bean, List<CanalEntry.Column> columns) {
+            Object[] values = new Object[getters.length];
+            try {
+                for (int i = 0; i < getters.length; i++) {
+                    values[i] = toJdbcValue(getters[i].invokeExact((Object) bean));
+                }
+            } catch (Throwable e) {
+                throw new IllegalStateException("can't read " + clz.getName(), e);
+            }
+            for (CanalEntry.Column column : columns) {
+                if (column.getIsNull()) {
+                    Integer index = sourceIndexes.get(CanalBeanBinder.normalizeName(column.getName()));
+                    if (index != null) {
+                        values[index] = null;
+                    }
+                }
+            }
+            return values;
+        }
+
+        boolean sameKey(Object[] before, Object[] after) {
+            for (int key : keyIndexes) {
+                if (before[key] == null ? after[key] != null : !before[key].equals(after[key])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static Object toJdbcValue(Object value) {
+            if (value instanceof Date && !(value instanceof java.sql.Date) && !(value instanceof Timestamp)) {
+                return new Timestamp(((Date) value).getTime());
+            }
+            return value;
+        }
+
+        private static String toSnakeCase(String name) {
+            StringBuilder sb = new StringBuilder(name.length() + 4);
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                if (Character.isUpperCase(c)) {
+                    if (i > 0) {
+                        sb.append('_');
+                    }
+                    sb.append(Character.toLowerCase(c));
+                } else {
+                    sb.append(c);
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    private static final class Op {
+        private final TableMapping<?> mapping;
+        private final boolean delete;
+        /**
+         * 按mapping的列顺序
+         */
+        private final Object[] values;
+
+        Op(TableMapping<?> mapping, boolean delete, Object[] values) {
+            this.mapping = mapping;
+            this.delete = delete;
+            this.values = values;
+        }
+    }
+}
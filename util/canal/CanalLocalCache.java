@@ -0,0 +1,516 @@
+import com.alibaba.otter.canal.protocol.CanalEntry;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * 由binlog维护的本地缓存：按数值主键缓存一张表的行，INSERT/UPDATE写入改变后的数据，DELETE删除
+ * <p>
+ * 主键为long，开放寻址（线性探测）存储，不装箱；容量固定为maxEntries，超过maxEntries或总权重超过maxWeight时按CLOCK淘汰。
+ * 读取时使用StampedLock乐观读，不加锁；值可选以ValueCodec编码后存放在堆外内存中，读取时先复制出编码，校验通过后再在锁外解码
+ * </p>
+ * <p>
+ * 实现了RowChangeHandler，在处理器的registerSubscriptions方法中订阅：
+ * </p>
+ * <pre>
+ *     subscribe("db", "user", userCache);
+ * </pre>
+ */
+public class CanalLocalCache<V> implements AbstractCanalLogMsgProcessor.RowChangeHandler {
+    /**
+     * 堆外内存段大小，更大的值单独一段
+     */
+    private static final int SEGMENT_SIZE = 4 << 20;
+
+    private final AbstractCanalLogMsgProcessor processor;
+    private final Class<V> clz;
+    private final String keyColumn;
+    private final int maxEntries;
+    private final long maxWeight;
+    private final ToIntFunction<V> weigher;
+    private final ValueCodec<V> codec;
+
+    private final StampedLock lock = new StampedLock();
+    private final int mask;
+    private final long[] keys;
+    private final boolean[] used;
+    /**
+     * CLOCK访问位，读取时不加锁写入，与used分开存放，不影响表结构
+     */
+    private final boolean[] referenced;
+    private final int[] weights;
+    /**
+     * 堆内存储时的值
+     */
+    private final Object[] values;
+    /**
+     * 堆外存储时的位置：段下标 << 32 | 段内偏移，长度即weights
+     */
+    private final long[] locations;
+    private OffHeapArena arena;
+    private int size;
+    private long totalWeight;
+    private int hand;
+
+    /**
+     * binlog写入次数，用于判断加载期间是否有变更
+     */
+    private final AtomicLong writes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * 堆内存储，按条数淘汰
+     *
+     * @param processor  用于转换行数据
+     * @param clz
+     * @param keyColumn  数值主键的列名
+     * @param maxEntries 最大条数
+     */
+    public CanalLocalCache(AbstractCanalLogMsgProcessor processor, Class<V> clz, String keyColumn, int maxEntries) {
+        this(processor, clz, keyColumn, maxEntries, Long.MAX_VALUE, null, null);
+    }
+
+    /**
+     * @param processor  用于转换行数据
+     * @param clz
+     * @param keyColumn  数值主键的列名
+     * @param maxEntries 最大条数
+     * @param maxWeight  最大总权重
+     * @param weigher    值的权重，为null时每条为1；堆外存储时忽略，权重为编码后的字节数
+     * @param codec      不为null时值编码后存放在堆外内存中
+     */
+    public CanalLocalCache(AbstractCanalLogMsgProcessor processor, Class<V> clz, String keyColumn, int maxEntries,
+                           long maxWeight, ToIntFunction<V> weigher, ValueCodec<V> codec) {
+        if (processor == null || clz == null || keyColumn == null || maxEntries <= 0 || maxEntries > (1 << 29) || maxWeight <= 0) {
+            throw new IllegalArgumentException("processor, clz and keyColumn can't be empty, maxEntries and maxWeight must be positive.");
+        }
+        this.processor = processor;
+        this.clz = clz;
+        this.keyColumn = keyColumn;
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.codec = codec;
+        // 负载因子不超过0.5
+        int capacity = Integer.highestOneBit(maxEntries * 2 - 1) << 1;
+        this.mask = capacity - 1;
+        this.keys = new long[capacity];
+        this.used = new boolean[capacity];
+        this.referenced = new boolean[capacity];
+        this.weights = new int[capacity];
+        this.values = codec == null ? new Object[capacity] : null;
+        this.locations = codec == null ? null : new long[capacity];
+        this.arena = codec == null ? null : new OffHeapArena();
+    }
+
+    /**
+     * 按binlog更新缓存
+     */
+    @Override
+    public void handle(CanalEntry.Entry entry, CanalEntry.RowChange rowChange) throws Exception {
+        CanalEntry.EventType eventType = rowChange.getEventType();
+        if (!CanalRowKeys.isDml(eventType)) {
+            processor.handleDdl(entry, rowChange);
+            return;
+        }
+        List<CanalEntry.RowData> rowDatas = rowChange.getRowDatasList();
+        if (eventType == CanalEntry.EventType.DELETE) {
+            for (CanalEntry.RowData rowData : rowDatas) {
+                writes.incrementAndGet();
+                remove(keyOf(rowData.getBeforeColumnsList()));
+            }
+            return;
+        }
+        List<V> afters = processor.getChangesAfter(entry, rowChange, clz);
+        for (int i = 0; i < afters.size(); i++) {
+            CanalEntry.RowData rowData = rowDatas.get(i);
+            long key = keyOf(rowData.getAfterColumnsList());
+            writes.incrementAndGet();
+            if (eventType == CanalEntry.EventType.UPDATE && rowData.getBeforeColumnsCount() > 0) {
+                long beforeKey = keyOf(rowData.getBeforeColumnsList());
+                if (beforeKey != key) {
+                    remove(beforeKey);
+                }
+            }
+            put(key, afters.get(i));
+        }
+    }
+
+    /**
+     * @param key
+     * @return 不存在时返回null
+     */
+    public V get(long key) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            Object raw;
+            boolean valid;
+            try {
+                raw = read(key);
+                valid = lock.validate(stamp);
+            } catch (RuntimeException | Error e) {
+                // 读取期间被修改（如堆外内存重新整理）时下标、位置、长度可能不一致，加锁重读；未被修改时是真实的异常
+                if (lock.validate(stamp)) {
+                    throw e;
+                }
+                raw = null;
+                valid = false;
+            }
+            if (valid) {
+                return toValue(raw);
+            }
+        }
+        Object raw;
+        stamp = lock.readLock();
+        try {
+            raw = read(key);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return toValue(raw);
+    }
+
+    /**
+     * 不存在时通过loader加载（如查询数据库）并缓存；加载期间有binlog写入时不缓存加载结果，避免覆盖更新的数据
+     *
+     * @param key
+     * @param loader 返回null时不缓存
+     * @return
+     */
+    public V get(long key, LongFunction<V> loader) {
+        V value = get(key);
+        if (value != null) {
+            return value;
+        }
+        long writeCount = writes.get();
+        value = loader.apply(key);
+        if (value == null) {
+            return null;
+        }
+        long stamp = lock.writeLock();
+        try {
+            if (writes.get() == writeCount && find(key) < 0) {
+                insert(key, value);
+                compactIfNeeded();
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        return value;
+    }
+
+    public void put(long key, V value) {
+        long stamp = lock.writeLock();
+        try {
+            int index = find(key);
+            if (index >= 0) {
+                release(index);
+                store(index, value);
+                referenced[index] = true;
+                evictOverweight();
+            } else {
+                insert(key, value);
+            }
+            compactIfNeeded();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void remove(long key) {
+        long stamp = lock.writeLock();
+        try {
+            int index = find(key);
+            if (index >= 0) {
+                delete(index);
+                compactIfNeeded();
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            for (int i = 0; i <= mask; i++) {
+                if (used[i]) {
+                    release(i);
+                    used[i] = false;
+                    referenced[i] = false;
+                }
+            }
+            size = 0;
+            totalWeight = 0;
+            if (arena != null) {
+                arena = new OffHeapArena();
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getTotalWeight() {
+        return totalWeight;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    private void record(V value) {
+        if (value == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+    }
+
+    /**
+     * 不加锁读取，乐观读时结果需校验后才能使用
+     *
+     * @return 堆内存储时为值，堆外存储时为编码的副本（未解码），不存在时返回null
+     */
+    private Object read(long key) {
+        int index = find(key);
+        if (index < 0) {
+            return null;
+        }
+        // 并发读写时只影响淘汰的精度
+        referenced[index] = true;
+        if (codec == null) {
+            return values[index];
+        }
+        return arena.copyOf(locations[index], weights[index]);
+    }
+
+    /**
+     * 校验通过的读取结果转为值并记录命中，解码在锁外进行
+     */
+    @SuppressWarnings("unchecked")
+    private V toValue(Object raw) {
+        V value = raw == null || codec == null ? (V) raw : codec.decode(ByteBuffer.wrap((byte[]) raw).asReadOnlyBuffer());
+        record(value);
+        return value;
+    }
+
+    /**
+     * @return 存在时返回下标，否则返回-(插入位置)-1
+     */
+    private int find(long key) {
+        int index = hash(key);
+        for (int i = 0; i <= mask; i++) {
+            if (!used[index]) {
+                return -index - 1;
+            }
+            if (keys[index] == key) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -index - 1;
+    }
+
+    private void insert(long key, V value) {
+        if (size >= maxEntries) {
+            evict();
+        }
+        int index = -find(key) - 1;
+        keys[index] = key;
+        used[index] = true;
+        referenced[index] = false;
+        store(index, value);
+        size++;
+        evictOverweight();
+    }
+
+    private void store(int index, V value) {
+        if (codec == null) {
+            values[index] = value;
+            weights[index] = weigher == null ? 1 : weigher.applyAsInt(value);
+        } else {
+            byte[] bytes = codec.encode(value);
+            locations[index] = arena.allocate(bytes);
+            weights[index] = bytes.length;
+        }
+        totalWeight += weights[index];
+    }
+
+    private void release(int index) {
+        totalWeight -= weights[index];
+        if (codec == null) {
+            values[index] = null;
+        } else {
+            arena.free(weights[index]);
+        }
+    }
+
+    private void evictOverweight() {
+        while (totalWeight > maxWeight && size > 1) {
+            evict();
+        }
+    }
+
+    /**
+     * CLOCK：跳过并清除最近访问过的条目，淘汰第一个未访问过的条目
+     */
+    private void evict() {
+        while (true) {
+            hand = (hand + 1) & mask;
+            if (!used[hand]) {
+                continue;
+            }
+            if (referenced[hand]) {
+                referenced[hand] = false;
+                continue;
+            }
+            delete(hand);
+            evictions.increment();
+            return;
+        }
+    }
+
+    /**
+     * 删除后将后续探测链上的条目前移（backward shift），不使用墓碑
+     */
+    private void delete(int index) {
+        release(index);
+        size--;
+        int hole = index;
+        int next = index;
+        while (true) {
+            next = (next + 1) & mask;
+            if (!used[next]) {
+                break;
+            }
+            int home = hash(keys[next]);
+            // home在(hole, next]之间（循环）时不能前移
+            boolean inRange = hole <= next ? (hole < home && home <= next) : (hole < home || home <= next);
+            if (inRange) {
+                continue;
+            }
+            keys[hole] = keys[next];
+            referenced[hole] = referenced[next];
+            weights[hole] = weights[next];
+            if (codec == null) {
+                values[hole] = values[next];
+            } else {
+                locations[hole] = locations[next];
+            }
+            hole = next;
+        }
+        used[hole] = false;
+        referenced[hole] = false;
+        if (codec == null) {
+            values[hole] = null;
+        }
+    }
+
+    /**
+     * 已删除的值占用的堆外空间超过存活的值时，将存活的值复制到新的堆外内存中
+     */
+    private void compactIfNeeded() {
+        if (arena == null || !arena.needsCompaction()) {
+            return;
+        }
+        OffHeapArena compacted = new OffHeapArena();
+        for (int i = 0; i <= mask; i++) {
+            if (used[i]) {
+                locations[i] = compacted.copy(arena, locations[i], weights[i]);
+            }
+        }
+        arena = compacted;
+    }
+
+    private long keyOf(List<CanalEntry.Column> cols) {
+        for (int i = 0; i < cols.size(); i++) {
+            CanalEntry.Column col = cols.get(i);
+            if (col.getName().equalsIgnoreCase(keyColumn)) {
+                return CanalValueParser.parseLong(col.getValueBytes());
+            }
+        }
+        throw new IllegalStateException("key column " + keyColumn + " not found");
+    }
+
+    private int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * 堆外存储时值的编解码
+     */
+    public interface ValueCodec<V> {
+        byte[] encode(V value);
+
+        /**
+         * @param buffer 只读，position为0，limit为编码长度
+         */
+        V decode(ByteBuffer buffer);
+    }
+
+    /**
+     * 堆外内存，按段顺序分配，删除只记录空间，已删除的空间超过存活的空间时整体重新整理
+     */
+    private static final class OffHeapArena {
+        private final List<ByteBuffer> segments = new ArrayList<>();
+        private ByteBuffer current;
+        private long liveBytes;
+        private long deadBytes;
+
+        long allocate(byte[] bytes) {
+            ByteBuffer segment = current;
+            if (segment == null || segment.remaining() < bytes.length) {
+                segment = ByteBuffer.allocateDirect(Math.max(SEGMENT_SIZE, bytes.length));
+                segments.add(segment);
+                current = segment;
+            }
+            long location = ((long) (segments.size() - 1) << 32) | segment.position();
+            segment.put(bytes);
+            liveBytes += bytes.length;
+            return location;
+        }
+
+        long copy(OffHeapArena source, long location, int length) {
+            return allocate(source.copyOf(location, length));
+        }
+
+        byte[] copyOf(long location, int length) {
+            ByteBuffer buffer = segments.get((int) (location >>> 32)).duplicate();
+            int offset = (int) location;
+            buffer.limit(offset + length).position(offset);
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return bytes;
+        }
+
+        void free(int length) {
+            liveBytes -= length;
+            deadBytes += length;
+        }
+
+        boolean needsCompaction() {
+            return deadBytes > SEGMENT_SIZE && deadBytes > liveBytes;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+import com.alibaba.otter.canal.protocol.CanalEntry;
+
+/**
+ * canal消息转换指标，实现需保证线程安全且开销低，默认实现见InMemoryCanalMetrics
+ * 转换时每个RowChange（逐行接口为每次遍历完）记录一次，不在每个单元格上记录
+ */
+public interface CanalMetrics {
+    /**
+     * 不记录
+     */
+    CanalMetrics NOOP = new CanalMetrics() {
+        @Override
+        public void recordRows(String tableKey, CanalEntry.EventType eventType, int rows, long elapsedNanos) {
+        }
+
+        @Override
+        public void recordConversionFailure(Class<?> fieldType) {
+        }
+
+        @Override
+        public void recordUnmappedColumns(String tableKey, long count) {
+        }
+    };
+
+    /**
+     * 记录转换的行数及耗时
+     *
+     * @param tableKey     schemaName.tableName，调用时未传entry为空串
+     * @param eventType    事件类型
+     * @param rows         行数
+     * @param elapsedNanos 转换耗时，未知时为-1
+     */
+    void recordRows(String tableKey, CanalEntry.EventType eventType, int rows, long elapsedNanos);
+
+    /**
+     * 记录列值转换失败
+     *
+     * @param fieldType 目标属性类型
+     */
+    void recordConversionFailure(Class<?> fieldType);
+
+    /**
+     * 记录因bean中没有对应属性而跳过的列
+     *
+     * @param tableKey schemaName.tableName，调用时未传entry为空串
+     * @param count    跳过的单元格数
+     */
+    void recordUnmappedColumns(String tableKey, long count);
+}
@@ -0,0 +1,362 @@
+import com.alibaba.otter.canal.protocol.CanalEntry;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * 按主键分区的并行分发器
+ * <p>
+ * 每行按表名+主键列（Column.getIsKey()）的值哈希到固定的处理通道，每个通道一个线程，同一主键的行在同一通道内按顺序处理；
+ * 行数据在通道线程上转换（before/after在handler获取时才转换）。没有主键列的表整表进入同一个通道。
+ * 修改了主键的UPDATE在新主键的通道处理，原主键的通道执行到这一行的位置时等待它处理完，两个主键之前、之后的行都不会越过它。
+ * 一批消息分发完后调用awaitDrained()，所有通道处理完再ack
+ * </p>
+ * <p>
+ * 某个通道的行处理失败后，该通道之后的行在下次awaitDrained()之前都会跳过，不会在失败行之后应用同一主键的后续变更，
+ * awaitDrained()抛出异常后不能ack该批消息。通道线程退出（中断或close）后dispatch/awaitDrained不再等待，抛出IllegalStateException
+ * </p>
+ * <pre>
+ *     for (CanalEntry.Entry entry : entries) {
+ *         dispatcher.dispatch(entry, CanalEntry.RowChange.parseFrom(entry.getStoreValue()), Bean.class, handler);
+ *     }
+ *     dispatcher.awaitDrained();
+ *     connector.ack(batchId);
+ * </pre>
+ */
+public class CanalPartitionedDispatcher implements AutoCloseable {
+    private static final Runnable SHUTDOWN = () -> {
+    };
+    /**
+     * 等待队列或通道时每次等待的时间，超时后检查通道是否存活
+     */
+    private static final long POLL_MILLIS = 100;
+
+    private final AbstractCanalLogMsgProcessor processor;
+    private final Lane[] lanes;
+    /**
+     * 第一个处理失败的异常，awaitDrained时抛出
+     */
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private volatile boolean closed;
+
+    /**
+     * @param processor     用于转换行数据
+     * @param laneCount     通道数，一般取CPU核数
+     * @param queueCapacity 每个通道的队列容量，队列满时dispatch阻塞
+     */
+    public CanalPartitionedDispatcher(AbstractCanalLogMsgProcessor processor, int laneCount, int queueCapacity) {
+        if (processor == null || laneCount <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("processor can't be null, laneCount and queueCapacity must be positive.");
+        }
+        this.processor = processor;
+        this.lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(queueCapacity, "canal-dispatcher-lane-" + i);
+            lanes[i].thread.start();
+        }
+    }
+
+    /**
+     * 分发RowChange中的每一行到对应通道，handler在通道线程上执行
+     *
+     * @param entry     不能为null，用于区分表及处理DDL
+     * @param rowChange
+     * @param clz
+     * @param handler   同一主键的行按顺序回调
+     * @throws InterruptedException 等待通道队列时被中断
+     * @throws IllegalStateException 已关闭或通道线程已退出
+     */
+    public <T> void dispatch(CanalEntry.Entry entry, CanalEntry.RowChange rowChange, Class<T> clz, Consumer<AbstractCanalLogMsgProcessor.RowDataPair<T>> handler) throws InterruptedException {
+        if (entry == null || handler == null) {
+            throw new IllegalArgumentException("entry or handler can't be empty.");
+        }
+        Iterator<AbstractCanalLogMsgProcessor.RowDataPair<T>> pairs = processor.iterateChanges(entry, rowChange, clz);
+        if (!pairs.hasNext()) {
+            return;
+        }
+        CanalEntry.Header header = entry.getHeader();
+        int tableHash = header.getSchemaName().hashCode() * 31 + header.getTableName().hashCode();
+        boolean isDelete = rowChange.getEventType() == CanalEntry.EventType.DELETE;
+        boolean isUpdate = rowChange.getEventType() == CanalEntry.EventType.UPDATE;
+        List<CanalEntry.RowData> rowDatas = rowChange.getRowDatasList();
+        AtomicInteger remaining = new AtomicInteger(rowDatas.size());
+        for (CanalEntry.RowData rowData : rowDatas) {
+            RowTask<T> task = new RowTask<>(pairs.next(), handler, pairs, remaining);
+            Lane lane = laneOf(tableHash, isDelete ? rowData.getBeforeColumnsList() : rowData.getAfterColumnsList());
+            if (isUpdate && rowData.getBeforeColumnsCount() > 0) {
+                Lane beforeLane = laneOf(tableHash, rowData.getBeforeColumnsList());
+                if (beforeLane != lane) {
+                    KeyChange change = new KeyChange(task, beforeLane, lane);
+                    put(beforeLane, change.handoff);
+                    put(lane, change);
+                    continue;
+                }
+            }
+            put(lane, task);
+        }
+    }
+
+    /**
+     * 等待已分发的行全部处理完
+     *
+     * @throws InterruptedException
+     * @throws IllegalStateException 有行处理失败时抛出，cause为第一个失败的异常；已关闭或通道线程已退出时抛出
+     */
+    public void awaitDrained() throws InterruptedException {
+        Barrier[] barriers = new Barrier[lanes.length];
+        for (int i = 0; i < lanes.length; i++) {
+            barriers[i] = new Barrier();
+            put(lanes[i], barriers[i]);
+        }
+        for (int i = 0; i < lanes.length; i++) {
+            CountDownLatch latch = barriers[i].latch;
+            while (!latch.await(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                // 线程结束先于isAlive()返回false，此时计数仍未归零说明屏障不会再执行
+                if (!lanes[i].thread.isAlive() && latch.getCount() > 0) {
+                    throw new IllegalStateException(lanes[i].thread.getName() + " stopped before drained.");
+                }
+            }
+        }
+        Throwable e = failure.getAndSet(null);
+        if (e != null) {
+            throw new IllegalStateException("canal row handler failed", e);
+        }
+    }
+
+    /**
+     * 处理完已分发的行后停止所有通道线程
+     */
+    @Override
+    public void close() throws InterruptedException {
+        closed = true;
+        for (Lane lane : lanes) {
+            while (lane.thread.isAlive() && !lane.queue.offer(SHUTDOWN, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                // 队列满时等待通道消费，通道线程已退出时不再等待
+            }
+        }
+        for (Lane lane : lanes) {
+            lane.thread.join();
+        }
+    }
+
+    /**
+     * 放入通道队列，队列满时按POLL_MILLIS分段等待，期间已关闭或通道线程退出则不再等待
+     */
+    private void put(Lane lane, Runnable task) throws InterruptedException {
+        while (true) {
+            if (closed) {
+                throw new IllegalStateException("dispatcher is closed.");
+            }
+            if (!lane.thread.isAlive()) {
+                throw new IllegalStateException(lane.thread.getName() + " has stopped.");
+            }
+            if (lane.queue.offer(task, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        }
+    }
+
+    private Lane laneOf(int tableHash, List<CanalEntry.Column> cols) {
+        return lanes[(keyHash(tableHash, cols) & Integer.MAX_VALUE) % lanes.length];
+    }
+
+    /**
+     * 等待另一个通道，按POLL_MILLIS分段等待，对方线程已退出时不再等待
+     */
+    private static void awaitLane(CountDownLatch latch, Lane lane) throws InterruptedException {
+        while (!latch.await(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (!lane.thread.isAlive() && latch.getCount() > 0) {
+                throw new IllegalStateException(lane.thread.getName() + " has stopped.");
+            }
+        }
+    }
+
+    private static int keyHash(int tableHash, List<CanalEntry.Column> cols) {
+        int hash = tableHash;
+        for (int i = 0; i < cols.size(); i++) {
+            CanalEntry.Column col = cols.get(i);
+            if (col.getIsKey()) {
+                // ByteString会缓存hash，不需要解码为String
+                hash = hash * 31 + col.getValueBytes().hashCode();
+            }
+        }
+        // 与hashCode高位混合，避免只有低位变化的自增主键集中在少数通道
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * 一行的处理任务，RowChange的最后一行处理（或跳过）后结束遍历，记录转换指标
+     */
+    private static final class RowTask<T> implements Runnable {
+        private final AbstractCanalLogMsgProcessor.RowDataPair<T> pair;
+        private final Consumer<AbstractCanalLogMsgProcessor.RowDataPair<T>> handler;
+        private final Iterator<?> pairs;
+        private final AtomicInteger remaining;
+
+        RowTask(AbstractCanalLogMsgProcessor.RowDataPair<T> pair, Consumer<AbstractCanalLogMsgProcessor.RowDataPair<T>> handler,
+                Iterator<?> pairs, AtomicInteger remaining) {
+            this.pair = pair;
+            this.handler = handler;
+            this.pairs = pairs;
+            this.remaining = remaining;
+        }
+
+        @Override
+        public void run() {
+            try {
+                handler.accept(pair);
+            } finally {
+                done();
+            }
+        }
+
+        void done() {
+            if (remaining.decrementAndGet() == 0) {
+                // 遍历完时LazyRowIterator记录指标，各通道的转换耗时已在此之前累加
+                pairs.hasNext();
+            }
+        }
+    }
+
+    /**
+     * awaitDrained放入每个通道的屏障，执行到时该通道之前的行已处理完
+     */
+    private static final class Barrier implements Runnable {
+        private final CountDownLatch latch = new CountDownLatch(1);
+
+        @Override
+        public void run() {
+            latch.countDown();
+        }
+    }
+
+    /**
+     * 修改了主键且新旧主键在不同通道的UPDATE，在新主键的通道执行；原主键的通道执行到handoff时，
+     * 之前原主键的行已处理完，该通道等待这一行处理完再继续。两个任务按分发顺序入队，只等待同一次分发的对方，不会死锁
+     */
+    private static final class KeyChange implements Runnable {
+        private final RowTask<?> task;
+        private final Lane source;
+        private final Lane target;
+        private final Handoff handoff = new Handoff();
+        private final CountDownLatch reached = new CountDownLatch(1);
+        private final CountDownLatch applied = new CountDownLatch(1);
+        private volatile boolean sourceFailed;
+        private volatile boolean succeeded;
+
+        KeyChange(RowTask<?> task, Lane source, Lane target) {
+            this.task = task;
+            this.source = source;
+            this.target = target;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        /**
+         * 在新主键的通道上执行，原主键的通道失败时跳过
+         *
+         * @param laneFailed 本通道是否已失败
+         * @return 是否处理成功
+         */
+        boolean apply(boolean laneFailed) throws InterruptedException {
+            try {
+                try {
+                    awaitLane(reached, source);
+                } catch (IllegalStateException | InterruptedException e) {
+                    task.done();
+                    throw e;
+                }
+                if (laneFailed || sourceFailed) {
+                    task.done();
+                    return false;
+                }
+                task.run();
+                succeeded = true;
+                return true;
+            } finally {
+                applied.countDown();
+            }
+        }
+
+        /**
+         * 原主键的通道上的占位
+         */
+        private final class Handoff implements Runnable {
+            @Override
+            public void run() {
+            }
+
+            /**
+             * @param laneFailed 原主键的通道是否已失败
+             * @return 这一行是否处理成功，失败时原主键的通道也跳过之后的行
+             */
+            boolean pass(boolean laneFailed) throws InterruptedException {
+                sourceFailed = laneFailed;
+                reached.countDown();
+                awaitLane(applied, target);
+                return succeeded;
+            }
+        }
+    }
+
+    private class Lane implements Runnable {
+        private final BlockingQueue<Runnable> queue;
+        private final Thread thread;
+        /**
+         * 本通道有行处理失败，之后的行跳过直到下一个屏障，只在通道线程上访问
+         */
+        private boolean failed;
+
+        Lane(int queueCapacity, String name) {
+            this.queue = new LinkedBlockingQueue<>(queueCapacity);
+            this.thread = new Thread(this, name);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable task;
+                try {
+                    task = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (task == SHUTDOWN) {
+                    return;
+                }
+                try {
+                    if (task instanceof Barrier) {
+                        failed = false;
+                        task.run();
+                    } else if (task instanceof KeyChange.Handoff) {
+                        failed = !((KeyChange.Handoff) task).pass(failed);
+                    } else if (task instanceof KeyChange) {
+                        failed = !((KeyChange) task).apply(failed);
+                    } else if (failed) {
+                        ((RowTask<?>) task).done();
+                    } else {
+                        task.run();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Throwable e) {
+                    failed = true;
+                    failure.compareAndSet(null, e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,520 @@
+import com.alibaba.otter.canal.protocol.CanalEntry;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 三段式处理流水线：解析（RowChange.parseFrom）-> 转换（getChanges）-> 处理（handler）
+ * <p>
+ * 解析、转换各一个线程，阶段之间为有界队列；处理阶段每行一个任务，运行在虚拟线程上（Java 21+，更早的版本退化为缓存线程池），
+ * 适合handler中有JDBC、HTTP等阻塞IO的场景。同时处理中的行数不超过maxInFlight，超过时转换阶段阻塞，队列满后submit阻塞，形成背压。
+ * 顺序由OrderingMode决定；修改了主键的UPDATE按改变后的主键排序
+ * </p>
+ * <p>
+ * 每张表注册各自的bean类型及handler，未注册的表不解析、不处理
+ * </p>
+ * <p>
+ * 设置了processor的重放过滤时，解析阶段跳过已处理过的位置；位置按binlog顺序记录，entry的所有行处理成功且之前的entry都已记录后才记录，
+ * 失败的entry及其之后的entry都不记录，重新投递时会再次处理。过滤状态应在awaitDrained之后保存
+ * </p>
+ * <p>
+ * 解析或转换失败后两个阶段都停止，之后的entry直接跳过；处理失败后该行所在的键（TABLE为表，PRIMARY_KEY为主键）停止，
+ * 之后同一键的行跳过，其他键继续处理。awaitDrained抛出失败后恢复，可以重新投递
+ * </p>
+ * <pre>
+ *     runner.register("db", "t_order", Order.class, (entry, eventType, pair) -> ...);
+ *     runner.submit(message.getEntries());
+ *     runner.awaitDrained();
+ *     connector.ack(batchId);
+ * </pre>
+ */
+public class CanalPipelineRunner implements AutoCloseable {
+    private static final Object SHUTDOWN = new Object();
+
+    /**
+     * 处理阶段的顺序保证
+     */
+    public enum OrderingMode {
+        /**
+         * 不保证顺序
+         */
+        NONE,
+        /**
+         * 同一张表的行按顺序处理
+         */
+        TABLE,
+        /**
+         * 同一张表同一主键的行按顺序处理，没有主键列的表以所有列的值作为主键
+         */
+        PRIMARY_KEY
+    }
+
+    /**
+     * 处理一行变更
+     */
+    @FunctionalInterface
+    public interface RowHandler<T> {
+        void handle(CanalEntry.Entry entry, CanalEntry.EventType eventType, AbstractCanalLogMsgProcessor.RowDataPair<T> pair) throws Exception;
+    }
+
+    private final AbstractCanalLogMsgProcessor processor;
+    private final OrderingMode ordering;
+    /**
+     * 表（schemaName.tableName） -> bean类型及handler
+     */
+    private final ConcurrentHashMap<String, Route<?>> routes = new ConcurrentHashMap<>();
+    private final BlockingQueue<Object> parseQueue;
+    private final BlockingQueue<Object> convertQueue;
+    private final Semaphore inFlight;
+    private final ExecutorService executor;
+    private final Thread parseThread;
+    private final Thread convertThread;
+    /**
+     * 排序键 -> 等待处理的行，存在即表示该键有行正在处理
+     */
+    private final Map<Object, ArrayDeque<RowTask<?>>> keyLanes = new HashMap<>();
+    /**
+     * 有行处理失败的排序键，awaitDrained抛出失败前该键的行都跳过，由keyLanes加锁
+     */
+    private final Set<Object> poisonedKeys = new HashSet<>();
+    /**
+     * 已提交未记录位置的entry，按binlog顺序
+     */
+    private final ArrayDeque<EntryProgress> positions = new ArrayDeque<>();
+    /**
+     * 已提交未处理完的entry及行数
+     */
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Object drained = new Object();
+    /**
+     * 第一个失败的异常，awaitDrained时抛出
+     */
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    /**
+     * 解析或转换失败后为true，之后的entry直接跳过
+     */
+    private volatile boolean halted;
+    private volatile boolean closed;
+
+    /**
+     * @param processor     用于解析、转换行数据
+     * @param ordering      处理阶段的顺序保证
+     * @param queueCapacity 解析、转换队列的容量
+     * @param maxInFlight   同时处理中的最大行数
+     */
+    public CanalPipelineRunner(AbstractCanalLogMsgProcessor processor, OrderingMode ordering, int queueCapacity, int maxInFlight) {
+        if (processor == null || ordering == null || queueCapacity <= 0 || maxInFlight <= 0) {
+            throw new IllegalArgumentException("processor and ordering can't be empty, queueCapacity and maxInFlight must be positive.");
+        }
+        this.processor = processor;
+        this.ordering = ordering;
+        this.parseQueue = new LinkedBlockingQueue<>(queueCapacity);
+        this.convertQueue = new LinkedBlockingQueue<>(queueCapacity);
+        this.inFlight = new Semaphore(maxInFlight);
+        this.executor = newHandlerExecutor();
+        this.parseThread = newStageThread(this::runParseStage, "canal-pipeline-parse");
+        this.convertThread = newStageThread(this::runConvertStage, "canal-pipeline-convert");
+        parseThread.start();
+        convertThread.start();
+    }
+
+    /**
+     * 注册表的bean类型及handler，submit只处理注册过的表
+     *
+     * @param schemaName
+     * @param tableName
+     * @param clz
+     * @param handler    在处理阶段的线程上回调
+     */
+    public <T> void register(String schemaName, String tableName, Class<T> clz, RowHandler<T> handler) {
+        if (schemaName == null || tableName == null || clz == null || handler == null) {
+            throw new IllegalArgumentException("schemaName, tableName, clz or handler can't be empty.");
+        }
+        routes.put(schemaName + "." + tableName, new Route<>(clz, handler));
+    }
+
+    /**
+     * 提交一批canal消息，只处理注册过的表的行数据（非DDL）的INSERT、UPDATE、DELETE，DDL使对应表的绑定计划失效
+     *
+     * @param entries 按顺序提交
+     * @throws InterruptedException 等待解析队列时被中断
+     */
+    public void submit(List<CanalEntry.Entry> entries) throws InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("pipeline is closed.");
+        }
+        for (CanalEntry.Entry entry : entries) {
+            if (entry.getEntryType() != CanalEntry.EntryType.ROWDATA) {
+                continue;
+            }
+            EntryProgress progress = new EntryProgress(entry);
+            synchronized (positions) {
+                positions.add(progress);
+            }
+            pending.incrementAndGet();
+            parseQueue.put(progress);
+        }
+    }
+
+    /**
+     * 等待已提交的消息全部处理完
+     *
+     * @throws InterruptedException
+     * @throws IllegalStateException 有消息解析、转换或处理失败时抛出，cause为第一个失败的异常
+     */
+    public void awaitDrained() throws InterruptedException {
+        synchronized (drained) {
+            while (pending.get() > 0) {
+                drained.wait();
+            }
+        }
+        Throwable e = failure.getAndSet(null);
+        if (e != null) {
+            // 已全部结束，丢弃未记录的位置及停止的键，重新投递时从失败的entry开始
+            synchronized (positions) {
+                positions.clear();
+            }
+            synchronized (keyLanes) {
+                poisonedKeys.clear();
+            }
+            halted = false;
+            throw new IllegalStateException("canal pipeline failed", e);
+        }
+    }
+
+    /**
+     * 处理完已提交的消息后停止各阶段线程
+     */
+    @Override
+    public void close() throws InterruptedException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        parseQueue.put(SHUTDOWN);
+        parseThread.join();
+        convertThread.join();
+        synchronized (drained) {
+            while (pending.get() > 0) {
+                drained.wait();
+            }
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    private void runParseStage() {
+        while (true) {
+            Object item;
+            try {
+                item = parseQueue.take();
+                if (item == SHUTDOWN) {
+                    convertQueue.put(SHUTDOWN);
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            EntryProgress progress = (EntryProgress) item;
+            CanalEntry.Entry entry = progress.entry;
+            try {
+                if (halted) {
+                    progress.rowDone(false);
+                    complete(1);
+                    continue;
+                }
+                CanalReplayFilter filter = processor.getReplayFilter();
+                if (filter != null && filter.isDuplicate(entry.getHeader())) {
+                    progress.record = false;
+                    progress.rowDone(true);
+                    complete(1);
+                    continue;
+                }
+                CanalEntry.Header header = entry.getHeader();
+                Route<?> route = routes.get(header.getSchemaName() + "." + header.getTableName());
+                if (route == null) {
+                    // 不处理的表也按顺序记录，不能越过之前还在处理中的entry
+                    progress.rowDone(true);
+                    complete(1);
+                    continue;
+                }
+                CanalEntry.RowChange rowChange = CanalEntry.RowChange.parseFrom(entry.getStoreValue());
+                convertQueue.put(new Parsed(progress, rowChange, route));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+                halted = true;
+                progress.rowDone(false);
+                complete(1);
+            }
+        }
+    }
+
+    private void runConvertStage() {
+        while (true) {
+            Object item;
+            try {
+                item = convertQueue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (item == SHUTDOWN) {
+                return;
+            }
+            Parsed parsed = (Parsed) item;
+            try {
+                if (halted) {
+                    parsed.progress.rowDone(false);
+                } else {
+                    convert(parsed.progress, parsed.rowChange, parsed.route);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+                halted = true;
+                parsed.progress.rowDone(false);
+            } finally {
+                complete(1);
+            }
+        }
+    }
+
+    private <T> void convert(EntryProgress progress, CanalEntry.RowChange rowChange, Route<T> route) throws Exception {
+        CanalEntry.Entry entry = progress.entry;
+        CanalEntry.EventType eventType = rowChange.getEventType();
+        if (!CanalRowKeys.isDml(eventType)) {
+            processor.handleDdl(entry, rowChange);
+            progress.rowDone(true);
+            return;
+        }
+        List<AbstractCanalLogMsgProcessor.RowDataPair<T>> pairs = processor.getChanges(entry, rowChange, route.clz);
+        // progress初始计1，所有行提交完后释放，避免提交过程中先完成的行提前记录位置
+        progress.remaining.addAndGet(pairs.size());
+        CanalEntry.Header header = entry.getHeader();
+        String tableKey = header.getSchemaName() + "." + header.getTableName();
+        List<CanalEntry.RowData> rowDatas = rowChange.getRowDatasList();
+        for (int i = 0; i < pairs.size(); i++) {
+            inFlight.acquire();
+            pending.incrementAndGet();
+            switch (ordering) {
+                case TABLE:
+                    schedule(new RowTask<>(tableKey, progress, eventType, pairs.get(i), route));
+                    break;
+                case PRIMARY_KEY:
+                    CanalEntry.RowData rowData = rowDatas.get(i);
+                    Object key = CanalRowKeys.keyOf(tableKey, eventType == CanalEntry.EventType.DELETE ? rowData.getBeforeColumnsList() : rowData.getAfterColumnsList());
+                    schedule(new RowTask<>(key, progress, eventType, pairs.get(i), route));
+                    break;
+                default:
+                    executor.execute(new RowTask<>(null, progress, eventType, pairs.get(i), route));
+                    break;
+            }
+        }
+        progress.rowDone(true);
+    }
+
+    /**
+     * entry结束后，从头按顺序记录已成功的entry的位置，遇到未结束或失败的entry停止
+     */
+    private void recordPositions() {
+        CanalReplayFilter filter = processor.getReplayFilter();
+        synchronized (positions) {
+            EntryProgress head;
+            while ((head = positions.peekFirst()) != null && head.done && !head.failed) {
+                positions.pollFirst();
+                if (filter != null && head.record) {
+                    filter.markProcessed(head.entry.getHeader());
+                }
+            }
+        }
+    }
+
+    /**
+     * 同一个键的任务按提交顺序在一个线程上依次执行，不同键并行
+     */
+    private void schedule(RowTask<?> task) {
+        synchronized (keyLanes) {
+            ArrayDeque<RowTask<?>> lane = keyLanes.get(task.key);
+            if (lane != null) {
+                lane.add(task);
+                return;
+            }
+            keyLanes.put(task.key, new ArrayDeque<>());
+        }
+        executor.execute(() -> runLane(task.key, task));
+    }
+
+    private void runLane(Object key, RowTask<?> first) {
+        RowTask<?> task = first;
+        while (task != null) {
+            task.run();
+            synchronized (keyLanes) {
+                task = keyLanes.get(key).poll();
+                if (task == null) {
+                    keyLanes.remove(key);
+                }
+            }
+        }
+    }
+
+    private void complete(int count) {
+        if (pending.addAndGet(-count) == 0) {
+            synchronized (drained) {
+                drained.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Java 21+使用虚拟线程，否则使用守护线程的缓存线程池（并发数由maxInFlight限制）
+     */
+    private static ExecutorService newHandlerExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            return Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "canal-pipeline-handler-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private static Thread newStageThread(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private boolean isPoisoned(Object key) {
+        synchronized (keyLanes) {
+            return poisonedKeys.contains(key);
+        }
+    }
+
+    private void poison(Object key) {
+        synchronized (keyLanes) {
+            poisonedKeys.add(key);
+        }
+    }
+
+    /**
+     * entry中未处理完的行数，全部结束后按顺序记录位置
+     */
+    private final class EntryProgress {
+        private final CanalEntry.Entry entry;
+        /**
+         * 初始为1，由解析或转换阶段释放
+         */
+        private final AtomicInteger remaining = new AtomicInteger(1);
+        private volatile boolean failed;
+        /**
+         * 由positions加锁
+         */
+        private boolean done;
+        /**
+         * 重放的entry已记录过，不再记录
+         */
+        private volatile boolean record = true;
+
+        EntryProgress(CanalEntry.Entry entry) {
+            this.entry = entry;
+        }
+
+        void rowDone(boolean succeeded) {
+            if (!succeeded) {
+                failed = true;
+            }
+            if (remaining.decrementAndGet() == 0) {
+                synchronized (positions) {
+                    done = true;
+                }
+                recordPositions();
+            }
+        }
+    }
+
+    /**
+     * 处理一行，所在的键已停止时跳过，失败时停止所在的键
+     */
+    private final class RowTask<T> implements Runnable {
+        /**
+         * 排序键，不保证顺序时为null
+         */
+        private final Object key;
+        private final EntryProgress progress;
+        private final CanalEntry.EventType eventType;
+        private final AbstractCanalLogMsgProcessor.RowDataPair<T> pair;
+        private final Route<T> route;
+
+        RowTask(Object key, EntryProgress progress, CanalEntry.EventType eventType, AbstractCanalLogMsgProcessor.RowDataPair<T> pair, Route<T> route) {
+            this.key = key;
+            this.progress = progress;
+            this.eventType = eventType;
+            this.pair = pair;
+            this.route = route;
+        }
+
+        @Override
+        public void run() {
+            boolean succeeded = false;
+            try {
+                if (key == null || !isPoisoned(key)) {
+                    route.handler.handle(progress.entry, eventType, pair);
+                    succeeded = true;
+                }
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+                if (key != null) {
+                    poison(key);
+                }
+            } finally {
+                inFlight.release();
+                progress.rowDone(succeeded);
+                complete(1);
+            }
+        }
+    }
+
+    private static class Route<T> {
+        private final Class<T> clz;
+        private final RowHandler<T> handler;
+
+        Route(Class<T> clz, RowHandler<T> handler) {
+            this.clz = clz;
+            this.handler = handler;
+        }
+    }
+
+    private static class Parsed {
+        private final EntryProgress progress;
+        private final CanalEntry.RowChange rowChange;
+        private final Route<?> route;
+
+        Parsed(EntryProgress progress, CanalEntry.RowChange rowChange, Route<?> route) {
+            this.progress = progress;
+            this.rowChange = rowChange;
+            this.route = route;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+import com.alibaba.otter.canal.protocol.CanalEntry;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按binlog位置（Header的logfileName + logfileOffset）过滤重放的canal消息，用于消费者重启、rebalance后canal重复投递的批次
+ * <p>
+ * 每个数据源（Header.serverId）维护一个高水位及一个有界的近期窗口：不大于高水位的位置均视为已处理；
+ * 高于高水位的已处理位置记在窗口中，窗口满时最小的位置并入高水位（消息按binlog顺序处理，较早的位置不会再出现未处理的情况）。
+ * 批次ack后调用commit将高水位推进到该位置
+ * </p>
+ * <p>
+ * 线程安全；状态可通过snapshot/restore保存到本地文件。通过处理器的setReplayFilter设置后，processEntries在解析RowChange之前跳过已处理的位置
+ * </p>
+ */
+public class CanalReplayFilter {
+    private final int windowSize;
+    private final ConcurrentHashMap<Long, SourceState> sources = new ConcurrentHashMap<>();
+
+    /**
+     * @param windowSize 每个数据源近期窗口的大小
+     */
+    public CanalReplayFilter(int windowSize) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("windowSize must be positive.");
+        }
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * @param header
+     * @return 该位置是否已处理过
+     */
+    public boolean isDuplicate(CanalEntry.Header header) {
+        SourceState state = sources.get(header.getServerId());
+        return state != null && state.contains(Position.of(header));
+    }
+
+    /**
+     * 记录该位置已处理
+     *
+     * @param header
+     */
+    public void markProcessed(CanalEntry.Header header) {
+        getState(header.getServerId()).add(Position.of(header), windowSize);
+    }
+
+    /**
+     * 批次ack后调用，该位置及之前的位置均视为已处理
+     *
+     * @param header 批次中最后一条消息的Header
+     */
+    public void commit(CanalEntry.Header header) {
+        commit(header.getServerId(), Position.of(header));
+    }
+
+    /**
+     * 将数据源的高水位推进到指定位置，如全量初始化完成后从记录的binlog位置开始消费
+     *
+     * @param serverId
+     * @param position
+     */
+    public void commit(long serverId, Position position) {
+        getState(serverId).commit(position);
+    }
+
+    /**
+     * 保存状态到本地文件（先写临时文件再替换），每行格式：serverId	高水位	窗口内位置（逗号分隔）
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void snapshot(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<Long, SourceState> entry : sources.entrySet()) {
+                writer.write(entry.getKey() + "\t" + entry.getValue().format());
+                writer.newLine();
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 从snapshot保存的文件恢复状态，覆盖当前状态；文件不存在时不处理
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void restore(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        Map<Long, SourceState> restored = new ConcurrentHashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] parts = line.split("\t", -1);
+                SourceState state = new SourceState();
+                state.highWaterMark = parts[1].isEmpty() ? null : Position.parse(parts[1]);
+                if (parts.length > 2 && !parts[2].isEmpty()) {
+                    for (String position : parts[2].split(",")) {
+                        state.window.add(Position.parse(position));
+                    }
+                }
+                restored.put(Long.parseLong(parts[0]), state);
+            }
+        }
+        sources.clear();
+        sources.putAll(restored);
+    }
+
+    private SourceState getState(long serverId) {
+        SourceState state = sources.get(serverId);
+        if (state == null) {
+            state = sources.computeIfAbsent(serverId, k -> new SourceState());
+        }
+        return state;
+    }
+
+    private static class SourceState {
+        private Position highWaterMark;
+        private final TreeSet<Position> window = new TreeSet<>();
+
+        synchronized boolean contains(Position position) {
+            return (highWaterMark != null && position.compareTo(highWaterMark) <= 0) || window.contains(position);
+        }
+
+        synchronized void add(Position position, int windowSize) {
+            if (highWaterMark != null && position.compareTo(highWaterMark) <= 0) {
+                return;
+            }
+            window.add(position);
+            if (window.size() > windowSize) {
+                highWaterMark = window.pollFirst();
+            }
+        }
+
+        synchronized void commit(Position position) {
+            if (highWaterMark == null || position.compareTo(highWaterMark) > 0) {
+                highWaterMark = position;
+            }
+            window.headSet(highWaterMark, true).clear();
+        }
+
+        synchronized String format() {
+            StringBuilder sb = new StringBuilder(highWaterMark == null ? "" : highWaterMark.toString()).append('\t');
+            boolean first = true;
+            for (Position position : window) {
+                if (!first) {
+                    sb.append(',');
+                }
+                sb.append(position);
+                first = false;
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * binlog位置，文件名按末尾序号（如mysql-bin.000123）比较，相同文件按偏移量比较
+     */
+    public static final class Position implements Comparable<Position> {
+        private final String logfileName;
+        private final long sequence;
+        private final long offset;
+
+        public Position(String logfileName, long offset) {
+            this.logfileName = logfileName;
+            this.sequence = sequenceOf(logfileName);
+            this.offset = offset;
+        }
+
+        public static Position of(CanalEntry.Header header) {
+            return new Position(header.getLogfileName(), header.getLogfileOffset());
+        }
+
+        /**
+         * @param value toString()的结果，格式：logfileName:offset
+         */
+        public static Position parse(String value) {
+            int index = value.lastIndexOf(':');
+            return new Position(value.substring(0, index), Long.parseLong(value.substring(index + 1)));
+        }
+
+        public String getLogfileName() {
+            return logfileName;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        @Override
+        public int compareTo(Position other) {
+            int result = sequence >= 0 && other.sequence >= 0 ? Long.compare(sequence, other.sequence) : logfileName.compareTo(other.logfileName);
+            return result != 0 ? result : Long.compare(offset, other.offset);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Position)) {
+                return false;
+            }
+            Position other = (Position) o;
+            return offset == other.offset && logfileName.equals(other.logfileName);
+        }
+
+        @Override
+        public int hashCode() {
+            return logfileName.hashCode() * 31 + Long.hashCode(offset);
+        }
+
+        @Override
+        public String toString() {
+            return logfileName + ":" + offset;
+        }
+
+        private static long sequenceOf(String logfileName) {
+            int index = logfileName.lastIndexOf('.');
+            try {
+                return Long.parseLong(logfileName.substring(index + 1));
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+    }
+}
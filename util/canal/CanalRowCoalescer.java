@@ -0,0 +1,240 @@
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * 按主键合并一个时间/数量窗口内对同一行的多次变更，每个主键只输出一次
+ * <p>
+ * 合并规则：INSERT+UPDATE=INSERT，INSERT+DELETE=不输出，UPDATE+UPDATE=UPDATE（最早的before、最新的after），
+ * UPDATE+DELETE=DELETE（最早的before），DELETE+INSERT=UPDATE
+ * </p>
+ * <p>
+ * 行数据在输出时才转换，被合并掉的中间状态不转换；缓存的只是各行自己的列（protobuf解析时已复制），不引用整个RowChange。
+ * 窗口内主键数达到maxKeys、缓存的列数据字节数达到maxBytes、窗口时间超过maxDelayMillis、事务结束时输出全部缓存的变更；
+ * 不同主键之间按首次出现的顺序输出，同一主键只保证最终状态正确。修改了主键的UPDATE会先输出所有缓存的变更再直接输出，不参与合并；
+ * 没有主键列的表以所有列的值作为主键，其UPDATE同样不参与合并
+ * </p>
+ */
+public class CanalRowCoalescer<T> {
+    private final AbstractCanalLogMsgProcessor processor;
+    private final Class<T> clz;
+    private final int maxKeys;
+    private final long maxBytes;
+    private final long maxDelayNanos;
+    private final BiConsumer<CanalEntry.EventType, AbstractCanalLogMsgProcessor.RowDataPair<T>> sink;
+    /**
+     * 表+主键 -> 合并后的变更，按首次出现的顺序
+     */
+    private final LinkedHashMap<String, Pending> pending = new LinkedHashMap<>();
+    /**
+     * 缓存的列数据字节数（序列化大小）
+     */
+    private long pendingBytes;
+    private long windowStartNanos;
+
+    /**
+     * 同CanalRowCoalescer(processor, clz, maxKeys, Long.MAX_VALUE, maxDelayMillis, sink)，只按主键数限制
+     */
+    public CanalRowCoalescer(AbstractCanalLogMsgProcessor processor, Class<T> clz, int maxKeys, long maxDelayMillis,
+                             BiConsumer<CanalEntry.EventType, AbstractCanalLogMsgProcessor.RowDataPair<T>> sink) {
+        this(processor, clz, maxKeys, Long.MAX_VALUE, maxDelayMillis, sink);
+    }
+
+    /**
+     * @param processor      用于转换行数据
+     * @param clz
+     * @param maxKeys        窗口内最多缓存的主键数
+     * @param maxBytes       窗口内最多缓存的列数据字节数，宽表或大字段时按字节限制内存
+     * @param maxDelayMillis 窗口最长时间
+     * @param sink           接收合并后的变更，参数为合并后的事件类型及前后数据
+     */
+    public CanalRowCoalescer(AbstractCanalLogMsgProcessor processor, Class<T> clz, int maxKeys, long maxBytes, long maxDelayMillis,
+                             BiConsumer<CanalEntry.EventType, AbstractCanalLogMsgProcessor.RowDataPair<T>> sink) {
+        if (processor == null || clz == null || sink == null || maxKeys <= 0 || maxBytes <= 0 || maxDelayMillis < 0) {
+            throw new IllegalArgumentException("processor, clz and sink can't be empty, maxKeys and maxBytes must be positive.");
+        }
+        this.processor = processor;
+        this.clz = clz;
+        this.maxKeys = maxKeys;
+        this.maxBytes = maxBytes;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.sink = sink;
+    }
+
+    /**
+     * 处理一条canal消息：事务结束时输出全部缓存的变更，行数据（非DDL）解析后合并
+     *
+     * @param entry
+     * @throws InvalidProtocolBufferException
+     */
+    public synchronized void offer(CanalEntry.Entry entry) throws InvalidProtocolBufferException {
+        if (entry.getEntryType() == CanalEntry.EntryType.TRANSACTIONEND) {
+            flush();
+            return;
+        }
+        if (entry.getEntryType() == CanalEntry.EntryType.ROWDATA) {
+            offer(entry, CanalEntry.RowChange.parseFrom(entry.getStoreValue()));
+        }
+    }
+
+    /**
+     * 合并一个RowChange中的行，只处理INSERT、UPDATE、DELETE
+     *
+     * @param entry     不能为null，用于区分表
+     * @param rowChange
+     */
+    public synchronized void offer(CanalEntry.Entry entry, CanalEntry.RowChange rowChange) {
+        CanalEntry.EventType eventType = rowChange.getEventType();
+        if (!CanalRowKeys.isDml(eventType)) {
+            processor.handleDdl(entry, rowChange);
+            return;
+        }
+        flushIfExpired();
+        CanalEntry.Header header = entry.getHeader();
+        String tableKey = header.getSchemaName() + "." + header.getTableName();
+        for (CanalEntry.RowData rowData : rowChange.getRowDatasList()) {
+            String key;
+            if (eventType == CanalEntry.EventType.UPDATE) {
+                key = CanalRowKeys.keyOf(tableKey, rowData.getAfterColumnsList());
+                if (!key.equals(CanalRowKeys.keyOf(tableKey, rowData.getBeforeColumnsList()))) {
+                    flush();
+                    sink.accept(eventType, new AbstractCanalLogMsgProcessor.RowDataPair<>(
+                            convert(tableKey, rowData.getBeforeColumnsList()), convert(tableKey, rowData.getAfterColumnsList())));
+                    continue;
+                }
+            } else {
+                key = CanalRowKeys.keyOf(tableKey, eventType == CanalEntry.EventType.DELETE ? rowData.getBeforeColumnsList() : rowData.getAfterColumnsList());
+            }
+            merge(key, tableKey, eventType, rowData);
+            if (pending.size() >= maxKeys || pendingBytes >= maxBytes) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * 窗口时间已到时输出全部缓存的变更，可由定时任务调用
+     */
+    public synchronized void flushIfExpired() {
+        if (!pending.isEmpty() && System.nanoTime() - windowStartNanos >= maxDelayNanos) {
+            flush();
+        }
+    }
+
+    /**
+     * 输出全部缓存的变更，事务结束时必须调用（offer(entry)收到TRANSACTIONEND时会自动调用）
+     */
+    public synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        for (Pending change : pending.values()) {
+            sink.accept(change.eventType, new AbstractCanalLogMsgProcessor.RowDataPair<>(
+                    convert(change.tableKey, change.beforeCols), convert(change.tableKey, change.afterCols)));
+        }
+        pending.clear();
+        pendingBytes = 0;
+    }
+
+    /**
+     * @return 当前缓存的主键数
+     */
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * 转换一行的列，列为null或空时返回null
+     */
+    private T convert(String tableKey, List<CanalEntry.Column> cols) {
+        if (cols == null || cols.isEmpty()) {
+            return null;
+        }
+        try {
+            return processor.convertRow(cols, processor.resolveBindingPlan(tableKey, clz, cols, null));
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new IllegalStateException("convert canal row data to " + clz.getName() + " failed", e);
+        }
+    }
+
+    private void merge(String key, String tableKey, CanalEntry.EventType eventType, CanalEntry.RowData rowData) {
+        List<CanalEntry.Column> afterCols = eventType == CanalEntry.EventType.DELETE ? null : rowData.getAfterColumnsList();
+        Pending existing = pending.get(key);
+        if (existing == null) {
+            if (pending.isEmpty()) {
+                windowStartNanos = System.nanoTime();
+            }
+            existing = new Pending(tableKey, eventType, eventType == CanalEntry.EventType.INSERT ? null : rowData.getBeforeColumnsList());
+            pending.put(key, existing);
+            pendingBytes += sizeOf(existing.beforeCols);
+            existing.setAfter(afterCols);
+            return;
+        }
+        switch (existing.eventType) {
+            case INSERT:
+                if (eventType == CanalEntry.EventType.DELETE) {
+                    pending.remove(key);
+                    pendingBytes -= sizeOf(existing.beforeCols) + existing.afterBytes;
+                } else {
+                    existing.setAfter(afterCols);
+                }
+                break;
+            case UPDATE:
+                if (eventType == CanalEntry.EventType.DELETE) {
+                    existing.eventType = CanalEntry.EventType.DELETE;
+                }
+                existing.setAfter(afterCols);
+                break;
+            default:
+                // DELETE之后只可能是INSERT
+                existing.eventType = eventType == CanalEntry.EventType.INSERT ? CanalEntry.EventType.UPDATE : eventType;
+                existing.setAfter(afterCols);
+                break;
+        }
+    }
+
+    private static long sizeOf(List<CanalEntry.Column> cols) {
+        if (cols == null) {
+            return 0;
+        }
+        long size = 0;
+        for (int i = 0; i < cols.size(); i++) {
+            size += cols.get(i).getSerializedSize();
+        }
+        return size;
+    }
+
+    /**
+     * 合并后的变更，只引用行自己的列
+     */
+    private class Pending {
+        private final String tableKey;
+        private CanalEntry.EventType eventType;
+        /**
+         * 最早的before，INSERT开头时为null
+         */
+        private final List<CanalEntry.Column> beforeCols;
+        /**
+         * 最新的after，DELETE时为null
+         */
+        private List<CanalEntry.Column> afterCols;
+        private long afterBytes;
+
+        Pending(String tableKey, CanalEntry.EventType eventType, List<CanalEntry.Column> beforeCols) {
+            this.tableKey = tableKey;
+            this.eventType = eventType;
+            this.beforeCols = beforeCols;
+        }
+
+        void setAfter(List<CanalEntry.Column> cols) {
+            long bytes = sizeOf(cols);
+            pendingBytes += bytes - afterBytes;
+            afterCols = cols;
+            afterBytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,422 @@
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.google.protobuf.ByteString;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Types;
+import java.util.List;
+
+/**
+ * 不创建bean，直接将RowData编码为二进制记录或JSON，用于只转发变更的场景
+ * <p>
+ * 列与属性的对应关系（列名规范化、别名、未映射的列跳过）与转换bean时共用同一份绑定计划，值直接复制Column.getValueBytes()的字节，
+ * 不生成String、Map或RowDataPair。编码在内部复用的缓冲区中完成后写入目标，非线程安全，每个线程一个实例
+ * </p>
+ * <p>
+ * 二进制记录：int32 长度（不含自身） | byte 事件类型（EventType.ordinal()） | before | after，
+ * before/after为 varint 列数（0表示无数据） | 每列：varint 属性下标（见getFieldNames()） | varint 值长度+1（0表示null） | 值的UTF-8字节；
+ * 设置别名后属性下标可能变化，读取方需同时获取getFieldNames()
+ * </p>
+ * <p>
+ * JSON：每行一个对象，如{"type":"UPDATE","before":{...},"after":{...}}，以换行结尾；数值列输出为数字，其他列输出为字符串
+ * </p>
+ */
+public class CanalRowEncoder {
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[][] JSON_TYPES;
+
+    static {
+        CanalEntry.EventType[] eventTypes = CanalEntry.EventType.values();
+        JSON_TYPES = new byte[eventTypes.length][];
+        for (int i = 0; i < eventTypes.length; i++) {
+            JSON_TYPES[i] = ("{\"type\":\"" + eventTypes[i].name() + "\"").getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private final AbstractCanalLogMsgProcessor processor;
+    private final Class<Object> clz;
+    /**
+     * 当前编码的entry，同一个entry的行来自同一个binlog事件，列布局相同，可复用绑定计划
+     */
+    private CanalEntry.Entry currentEntry;
+    /**
+     * 当前entry的表，连续entry属于同一张表时复用，不逐行拼接字符串
+     */
+    private String tableKey;
+    private CanalBindingPlan<Object> beforePlan;
+    private CanalBindingPlan<Object> afterPlan;
+    /**
+     * 属性下标 -> JSON属性名（"name":），随绑定器变化
+     */
+    private CanalBeanBinder<?> binder;
+    private byte[][] jsonNames;
+    private byte[] scratch = new byte[1024];
+    private int length;
+
+    /**
+     * @param processor 提供属性解析、别名及绑定计划缓存
+     * @param clz       决定输出的列及列名，不会创建实例
+     */
+    @SuppressWarnings("unchecked")
+    public CanalRowEncoder(AbstractCanalLogMsgProcessor processor, Class<?> clz) {
+        if (processor == null || clz == null) {
+            throw new IllegalArgumentException("processor or clz can't be empty.");
+        }
+        this.processor = processor;
+        this.clz = (Class<Object>) clz;
+    }
+
+    /**
+     * @return 二进制记录中属性下标对应的属性名
+     */
+    public String[] getFieldNames() {
+        return processor.resolveBinder(clz).getFieldNames().clone();
+    }
+
+    /**
+     * 编码为二进制记录写入buffer
+     *
+     * @param entry     不能为null，用于区分表
+     * @param eventType
+     * @param rowData
+     * @param buffer
+     * @return 写入的字节数
+     * @throws BufferOverflowException 剩余空间不足时抛出，buffer不变
+     */
+    public int encodeBinary(CanalEntry.Entry entry, CanalEntry.EventType eventType, CanalEntry.RowData rowData, ByteBuffer buffer) {
+        encodeBinary(entry, eventType, rowData);
+        return copyTo(buffer);
+    }
+
+    /**
+     * 编码为二进制记录写入out
+     *
+     * @throws IOException
+     */
+    public void encodeBinary(CanalEntry.Entry entry, CanalEntry.EventType eventType, CanalEntry.RowData rowData, OutputStream out) throws IOException {
+        encodeBinary(entry, eventType, rowData);
+        out.write(scratch, 0, length);
+    }
+
+    /**
+     * RowChange中的每行依次编码为二进制记录写入out，DDL使对应表的绑定计划失效且不输出
+     *
+     * @throws IOException
+     */
+    public void encodeBinary(CanalEntry.Entry entry, CanalEntry.RowChange rowChange, OutputStream out) throws IOException {
+        if (processor.handleDdl(entry, rowChange)) {
+            return;
+        }
+        for (CanalEntry.RowData rowData : rowChange.getRowDatasList()) {
+            encodeBinary(entry, rowChange.getEventType(), rowData, out);
+        }
+    }
+
+    /**
+     * 编码为一行JSON写入buffer
+     *
+     * @return 写入的字节数
+     * @throws BufferOverflowException 剩余空间不足时抛出，buffer不变
+     */
+    public int encodeJson(CanalEntry.Entry entry, CanalEntry.EventType eventType, CanalEntry.RowData rowData, ByteBuffer buffer) {
+        encodeJson(entry, eventType, rowData);
+        return copyTo(buffer);
+    }
+
+    /**
+     * 编码为一行JSON写入out
+     *
+     * @throws IOException
+     */
+    public void encodeJson(CanalEntry.Entry entry, CanalEntry.EventType eventType, CanalEntry.RowData rowData, OutputStream out) throws IOException {
+        encodeJson(entry, eventType, rowData);
+        out.write(scratch, 0, length);
+    }
+
+    /**
+     * RowChange中的每行依次编码为一行JSON写入out，DDL使对应表的绑定计划失效且不输出
+     *
+     * @throws IOException
+     */
+    public void encodeJson(CanalEntry.Entry entry, CanalEntry.RowChange rowChange, OutputStream out) throws IOException {
+        if (processor.handleDdl(entry, rowChange)) {
+            return;
+        }
+        for (CanalEntry.RowData rowData : rowChange.getRowDatasList()) {
+            encodeJson(entry, rowChange.getEventType(), rowData, out);
+        }
+    }
+
+    private void encodeBinary(CanalEntry.Entry entry, CanalEntry.EventType eventType, CanalEntry.RowData rowData) {
+        beginEntry(entry);
+        length = 4;
+        writeByte(eventType.ordinal());
+        List<CanalEntry.Column> beforeCols = rowData.getBeforeColumnsList();
+        List<CanalEntry.Column> afterCols = rowData.getAfterColumnsList();
+        beforePlan = beforeCols.isEmpty() ? beforePlan : processor.resolveBindingPlan(tableKey, clz, beforeCols, beforePlan);
+        afterPlan = afterCols.isEmpty() ? afterPlan : processor.resolveBindingPlan(tableKey, clz, afterCols, afterPlan);
+        writeBinaryImage(beforeCols, beforePlan);
+        writeBinaryImage(afterCols, afterPlan);
+        int recordLength = length - 4;
+        scratch[0] = (byte) (recordLength >>> 24);
+        scratch[1] = (byte) (recordLength >>> 16);
+        scratch[2] = (byte) (recordLength >>> 8);
+        scratch[3] = (byte) recordLength;
+    }
+
+    private void writeBinaryImage(List<CanalEntry.Column> cols, CanalBindingPlan<?> plan) {
+        if (cols.isEmpty()) {
+            writeVarint(0);
+            return;
+        }
+        writeVarint(cols.size() - plan.getUnmappedCount());
+        for (int i = 0; i < cols.size(); i++) {
+            CanalBeanBinder.FieldSetter slot = plan.getSlot(i);
+            if (slot == null) {
+                continue;
+            }
+            CanalEntry.Column col = cols.get(i);
+            writeVarint(slot.getIndex());
+            if (col.getIsNull()) {
+                writeVarint(0);
+                continue;
+            }
+            ByteString value = col.getValueBytes();
+            writeVarint(value.size() + 1);
+            writeBytes(value);
+        }
+    }
+
+    private void encodeJson(CanalEntry.Entry entry, CanalEntry.EventType eventType, CanalEntry.RowData rowData) {
+        beginEntry(entry);
+        length = 0;
+        writeBytes(JSON_TYPES[eventType.ordinal()]);
+        List<CanalEntry.Column> beforeCols = rowData.getBeforeColumnsList();
+        if (!beforeCols.isEmpty()) {
+            beforePlan = processor.resolveBindingPlan(tableKey, clz, beforeCols, beforePlan);
+            writeAscii(",\"before\":");
+            writeJsonImage(beforeCols, beforePlan);
+        }
+        List<CanalEntry.Column> afterCols = rowData.getAfterColumnsList();
+        if (!afterCols.isEmpty()) {
+            afterPlan = processor.resolveBindingPlan(tableKey, clz, afterCols, afterPlan);
+            writeAscii(",\"after\":");
+            writeJsonImage(afterCols, afterPlan);
+        }
+        writeByte('}');
+        writeByte('\n');
+    }
+
+    private void writeJsonImage(List<CanalEntry.Column> cols, CanalBindingPlan<?> plan) {
+        byte[][] names = getJsonNames(plan.getBinder());
+        writeByte('{');
+        boolean first = true;
+        for (int i = 0; i < cols.size(); i++) {
+            CanalBeanBinder.FieldSetter slot = plan.getSlot(i);
+            if (slot == null) {
+                continue;
+            }
+            if (!first) {
+                writeByte(',');
+            }
+            first = false;
+            writeBytes(names[slot.getIndex()]);
+            CanalEntry.Column col = cols.get(i);
+            if (col.getIsNull()) {
+                writeBytes(NULL);
+                continue;
+            }
+            ByteString value = col.getValueBytes();
+            if (isNumeric(col.getSqlType()) && isJsonNumber(value)) {
+                writeBytes(value);
+            } else {
+                writeJsonString(value);
+            }
+        }
+        writeByte('}');
+    }
+
+    private byte[][] getJsonNames(CanalBeanBinder<?> current) {
+        if (current != binder) {
+            String[] fieldNames = current.getFieldNames();
+            byte[][] names = new byte[fieldNames.length][];
+            for (int i = 0; i < fieldNames.length; i++) {
+                names[i] = ("\"" + fieldNames[i] + "\":").getBytes(StandardCharsets.UTF_8);
+            }
+            jsonNames = names;
+            binder = current;
+        }
+        return jsonNames;
+    }
+
+    /**
+     * 按字节转义，多字节UTF-8字符原样输出
+     */
+    private void writeJsonString(ByteString value) {
+        int size = value.size();
+        ensureCapacity(size * 6 + 2);
+        byte[] out = scratch;
+        int pos = length;
+        out[pos++] = '"';
+        for (int i = 0; i < size; i++) {
+            byte b = value.byteAt(i);
+            if (b == '"' || b == '\\') {
+                out[pos++] = '\\';
+                out[pos++] = b;
+            } else if (b >= 0 && b < 0x20) {
+                out[pos++] = '\\';
+                out[pos++] = 'u';
+                out[pos++] = '0';
+                out[pos++] = '0';
+                out[pos++] = HEX[b >>> 4];
+                out[pos++] = HEX[b & 0xf];
+            } else {
+                out[pos++] = b;
+            }
+        }
+        out[pos++] = '"';
+        length = pos;
+    }
+
+    private static boolean isNumeric(int sqlType) {
+        switch (sqlType) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+            case Types.FLOAT:
+            case Types.REAL:
+            case Types.DOUBLE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * -?digits(.digits)?([eE][+-]?digits)?
+     */
+    private static boolean isJsonNumber(ByteString value) {
+        int size = value.size();
+        int i = size > 0 && value.byteAt(0) == '-' ? 1 : 0;
+        int digits = 0;
+        while (i < size && isDigit(value.byteAt(i))) {
+            i++;
+            digits++;
+        }
+        if (digits == 0 || (digits > 1 && value.byteAt(i - digits) == '0')) {
+            return false;
+        }
+        if (i < size && value.byteAt(i) == '.') {
+            i++;
+            digits = 0;
+            while (i < size && isDigit(value.byteAt(i))) {
+                i++;
+                digits++;
+            }
+            if (digits == 0) {
+                return false;
+            }
+        }
+        if (i < size && (value.byteAt(i) == 'e' || value.byteAt(i) == 'E')) {
+            i++;
+            if (i < size && (value.byteAt(i) == '+' || value.byteAt(i) == '-')) {
+                i++;
+            }
+            digits = 0;
+            while (i < size && isDigit(value.byteAt(i))) {
+                i++;
+                digits++;
+            }
+            if (digits == 0) {
+                return false;
+            }
+        }
+        return i == size;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    /**
+     * 换entry时丢弃上一个entry的计划：其他表或ALTER后列数相同但列不同时，复用会按错误的列-属性对应关系编码，
+     * 重新从缓存获取并校验列名
+     */
+    private void beginEntry(CanalEntry.Entry entry) {
+        if (entry != currentEntry) {
+            currentEntry = entry;
+            beforePlan = null;
+            afterPlan = null;
+            CanalEntry.Header header = entry.getHeader();
+            String schemaName = header.getSchemaName();
+            String tableName = header.getTableName();
+            if (!isTable(tableKey, schemaName, tableName)) {
+                tableKey = schemaName + "." + tableName;
+            }
+        }
+    }
+
+    private static boolean isTable(String tableKey, String schemaName, String tableName) {
+        return tableKey != null
+                && tableKey.length() == schemaName.length() + 1 + tableName.length()
+                && tableKey.startsWith(schemaName)
+                && tableKey.charAt(schemaName.length()) == '.'
+                && tableKey.endsWith(tableName);
+    }
+
+    private int copyTo(ByteBuffer buffer) {
+        if (buffer.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+        buffer.put(scratch, 0, length);
+        return length;
+    }
+
+    private void writeByte(int b) {
+        ensureCapacity(1);
+        scratch[length++] = (byte) b;
+    }
+
+    private void writeAscii(String s) {
+        ensureCapacity(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            scratch[length++] = (byte) s.charAt(i);
+        }
+    }
+
+    private void writeBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, scratch, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void writeBytes(ByteString bytes) {
+        ensureCapacity(bytes.size());
+        bytes.copyTo(scratch, length);
+        length += bytes.size();
+    }
+
+    private void writeVarint(int value) {
+        ensureCapacity(5);
+        while ((value & ~0x7f) != 0) {
+            scratch[length++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        scratch[length++] = (byte) value;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > scratch.length) {
+            byte[] grown = new byte[Math.max(scratch.length * 2, length + extra)];
+            System.arraycopy(scratch, 0, grown, 0, length);
+            scratch = grown;
+        }
+    }
+}
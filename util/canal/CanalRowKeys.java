@@ -0,0 +1,44 @@
+import com.alibaba.otter.canal.protocol.CanalEntry;
+
+import java.util.List;
+
+/**
+ * 同包组件共用的行变更判断及排序/合并键
+ */
+final class CanalRowKeys {
+    private CanalRowKeys() {
+    }
+
+    /**
+     * @param eventType
+     * @return 是否为INSERT、UPDATE、DELETE，其余（DDL等）需交给handleDdl
+     */
+    static boolean isDml(CanalEntry.EventType eventType) {
+        return eventType == CanalEntry.EventType.INSERT || eventType == CanalEntry.EventType.UPDATE
+                || eventType == CanalEntry.EventType.DELETE;
+    }
+
+    /**
+     * 表名 + 主键列的值；没有主键列时以所有列的值作为主键
+     *
+     * @param tableKey schemaName.tableName
+     * @param cols
+     * @return
+     */
+    static String keyOf(String tableKey, List<CanalEntry.Column> cols) {
+        StringBuilder key = new StringBuilder(tableKey);
+        boolean hasKey = false;
+        for (CanalEntry.Column col : cols) {
+            if (col.getIsKey()) {
+                key.append('\u0001').append(col.getValue());
+                hasKey = true;
+            }
+        }
+        if (!hasKey) {
+            for (CanalEntry.Column col : cols) {
+                key.append('\u0001').append(col.getIsNull() ? "\u0000" : col.getValue());
+            }
+        }
+        return key.toString();
+    }
+}
@@ -0,0 +1,306 @@
+import com.alibaba.otter.canal.protocol.CanalEntry;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 全量初始化：通过JDBC按主键分页读取整表，使用与binlog消息相同的属性解析、别名及列值转换生成bean，完成后从记录的binlog位置开始增量消费
+ * <p>
+ * 按数值主键keyset分页（WHERE key > ? ORDER BY key LIMIT ?），不使用OFFSET，大表每页的代价相同；
+ * parallelism大于1时按MIN/MAX将主键切分为多个区间，每个区间使用一个连接并行读取。
+ * 按ResultSetMetaData的列名、类型生成一次绑定计划，逐行按计划中的列转换器直接从ResultSet按类型读取（getInt、getTimestamp等），
+ * 不生成String及Column，空值规则与binlog消息一致
+ * </p>
+ * <p>
+ * 衔接增量：先记录binlog位置，再读取全量，完成后将该位置提交到去重过滤器，canal需从该位置开始订阅。
+ * 读取期间发生的变更可能已包含在全量数据中，会被增量再次处理，下游需按主键幂等（如upsert）
+ * </p>
+ * <pre>
+ *     CanalSnapshotLoader loader = new CanalSnapshotLoader(processor, dataSource, 10000, 5000, 4);
+ *     CanalReplayFilter.Position position = loader.bootstrap("db", "user", "id", User.class, users -> sink.save(users),
+ *             CanalSnapshotLoader.PositionSource.MYSQL, processor.getReplayFilter(), serverId);
+ * </pre>
+ */
+public class CanalSnapshotLoader {
+    private final AbstractCanalLogMsgProcessor processor;
+    private final DataSource dataSource;
+    private final int fetchSize;
+    private final int pageSize;
+    private final int parallelism;
+
+    /**
+     * @param processor   提供属性解析、别名及列值转换
+     * @param dataSource
+     * @param fetchSize   每次从数据库获取的行数
+     * @param pageSize    每页的行数，每页回调一次
+     * @param parallelism 并行读取的主键区间数
+     */
+    public CanalSnapshotLoader(AbstractCanalLogMsgProcessor processor, DataSource dataSource, int fetchSize, int pageSize, int parallelism) {
+        if (processor == null || dataSource == null || fetchSize <= 0 || pageSize <= 0 || parallelism <= 0) {
+            throw new IllegalArgumentException("processor and dataSource can't be empty, fetchSize, pageSize and parallelism must be positive.");
+        }
+        this.processor = processor;
+        this.dataSource = dataSource;
+        this.fetchSize = fetchSize;
+        this.pageSize = pageSize;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * 记录binlog位置，读取全量，完成后将位置提交到过滤器
+     *
+     * @param schemaName     为空时不加库名
+     * @param tableName
+     * @param keyColumn      数值类型的主键列
+     * @param clz
+     * @param consumer       按页回调，并行读取时会被多个线程同时调用
+     * @param positionSource 读取当前binlog位置
+     * @param replayFilter   可为null，不为null时提交记录的位置
+     * @param serverId       binlog所属数据源
+     * @return 记录的binlog位置，canal需从该位置开始订阅
+     */
+    public <T> CanalReplayFilter.Position bootstrap(String schemaName, String tableName, String keyColumn, Class<T> clz, Consumer<List<T>> consumer,
+                                                    PositionSource positionSource, CanalReplayFilter replayFilter, long serverId) throws SQLException, InterruptedException {
+        if (positionSource == null) {
+            throw new IllegalArgumentException("positionSource can't be empty.");
+        }
+        CanalReplayFilter.Position position;
+        try (Connection connection = dataSource.getConnection()) {
+            position = positionSource.read(connection);
+        }
+        load(schemaName, tableName, keyColumn, clz, consumer);
+        if (replayFilter != null) {
+            replayFilter.commit(serverId, position);
+        }
+        return position;
+    }
+
+    /**
+     * 读取全量
+     *
+     * @param schemaName 为空时不加库名
+     * @param tableName
+     * @param keyColumn  数值类型的主键列
+     * @param clz
+     * @param consumer   按页回调，并行读取时会被多个线程同时调用
+     * @return 读取的行数
+     */
+    public <T> long load(String schemaName, String tableName, String keyColumn, Class<T> clz, Consumer<List<T>> consumer) throws SQLException, InterruptedException {
+        if (tableName == null || tableName.isEmpty() || keyColumn == null || keyColumn.isEmpty() || clz == null || consumer == null) {
+            throw new IllegalArgumentException("tableName, keyColumn, clz and consumer can't be empty.");
+        }
+        String table = schemaName == null || schemaName.isEmpty() ? tableName : schemaName + "." + tableName;
+        RangeReader<T> reader = new RangeReader<>(table, keyColumn, clz, consumer);
+        long[] bounds = readKeyBounds(table, keyColumn);
+        if (bounds == null) {
+            return 0;
+        }
+        List<long[]> ranges = split(bounds[0], bounds[1], parallelism);
+        if (ranges.size() == 1) {
+            reader.read(ranges.get(0)[0], ranges.get(0)[1]);
+            return reader.rows.get();
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(ranges.size());
+        try {
+            List<Future<?>> futures = new ArrayList<>(ranges.size());
+            for (long[] range : ranges) {
+                futures.add(executor.submit(() -> {
+                    reader.read(range[0], range[1]);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    executor.shutdownNow();
+                    Throwable cause = e.getCause();
+                    if (cause instanceof SQLException) {
+                        throw (SQLException) cause;
+                    }
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new IllegalStateException("load " + table + " failed.", cause);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return reader.rows.get();
+    }
+
+    private long[] readKeyBounds(String table, String keyColumn) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT MIN(" + keyColumn + "), MAX(" + keyColumn + ") FROM " + table)) {
+            if (!rs.next()) {
+                return null;
+            }
+            long min = rs.getLong(1);
+            if (rs.wasNull()) {
+                return null;
+            }
+            return new long[]{min, rs.getLong(2)};
+        }
+    }
+
+    /**
+     * 将[min, max]切分为最多parts个闭区间
+     */
+    private static List<long[]> split(long min, long max, int parts) {
+        List<long[]> ranges = new ArrayList<>(parts);
+        // 跨度可能超过long范围，按无符号数计算
+        long step = Long.divideUnsigned(max - min, parts) + 1;
+        long lower = min;
+        while (true) {
+            long upper = Long.compareUnsigned(max - lower, step) < 0 ? max : lower + step - 1;
+            ranges.add(new long[]{lower, upper});
+            if (upper == max) {
+                return ranges;
+            }
+            lower = upper + 1;
+        }
+    }
+
+    /**
+     * 读取当前binlog位置，需在读取全量之前调用
+     */
+    @FunctionalInterface
+    public interface PositionSource {
+        /**
+         * MySQL：SHOW MASTER STATUS，8.4及以上为SHOW BINARY LOG STATUS
+         */
+        PositionSource MYSQL = connection -> {
+            try (Statement statement = connection.createStatement()) {
+                ResultSet rs;
+                try {
+                    rs = statement.executeQuery("SHOW MASTER STATUS");
+                } catch (SQLException e) {
+                    rs = statement.executeQuery("SHOW BINARY LOG STATUS");
+                }
+                try (ResultSet status = rs) {
+                    if (!status.next()) {
+                        throw new SQLException("binlog is not enabled.");
+                    }
+                    return new CanalReplayFilter.Position(status.getString(1), status.getLong(2));
+                }
+            }
+        };
+
+        CanalReplayFilter.Position read(Connection connection) throws SQLException;
+    }
+
+    /**
+     * 按区间分页读取，所有区间共用一个绑定计划（列布局相同）
+     */
+    private final class RangeReader<T> {
+        private final String tableKey;
+        private final String keyColumn;
+        private final String firstPageSql;
+        private final String nextPageSql;
+        private final Class<T> clz;
+        private final Consumer<List<T>> consumer;
+        private final AtomicLong rows = new AtomicLong();
+        private volatile CanalBindingPlan<T> plan;
+
+        RangeReader(String table, String keyColumn, Class<T> clz, Consumer<List<T>> consumer) {
+            // 与binlog消息的计划区分，避免列布局不同时互相覆盖缓存
+            this.tableKey = "snapshot:" + table;
+            this.keyColumn = keyColumn;
+            String select = "SELECT * FROM " + table + " WHERE " + keyColumn;
+            String suffix = " AND " + keyColumn + " <= ? ORDER BY " + keyColumn + " LIMIT " + pageSize;
+            this.firstPageSql = select + " >= ?" + suffix;
+            this.nextPageSql = select + " > ?" + suffix;
+            this.clz = clz;
+            this.consumer = consumer;
+        }
+
+        void read(long lower, long upper) throws SQLException {
+            try (Connection connection = dataSource.getConnection()) {
+                boolean first = true;
+                long from = lower;
+                while (true) {
+                    List<T> page = new ArrayList<>(pageSize);
+                    long start = System.nanoTime();
+                    long last;
+                    try (PreparedStatement statement = connection.prepareStatement(first ? firstPageSql : nextPageSql)) {
+                        statement.setFetchSize(fetchSize);
+                        statement.setLong(1, from);
+                        statement.setLong(2, upper);
+                        try (ResultSet rs = statement.executeQuery()) {
+                            last = readPage(rs, page);
+                        }
+                    }
+                    if (page.isEmpty()) {
+                        return;
+                    }
+                    processor.getMetrics().recordRows(tableKey, CanalEntry.EventType.INSERT, page.size(), System.nanoTime() - start);
+                    rows.addAndGet(page.size());
+                    consumer.accept(page);
+                    if (page.size() < pageSize || last == upper) {
+                        return;
+                    }
+                    first = false;
+                    from = last;
+                }
+            }
+        }
+
+        /**
+         * @return 本页最后一行的主键
+         */
+        private long readPage(ResultSet rs, List<T> page) throws SQLException {
+            ResultSetMetaData metaData = rs.getMetaData();
+            int count = metaData.getColumnCount();
+            // 只有列名、类型，用于生成/校验绑定计划
+            List<CanalEntry.Column> cols = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                cols.add(CanalEntry.Column.newBuilder()
+                        .setIndex(i)
+                        .setName(metaData.getColumnLabel(i + 1))
+                        .setSqlType(metaData.getColumnType(i + 1))
+                        .setMysqlType(metaData.getColumnTypeName(i + 1).toLowerCase())
+                        .build());
+            }
+            CanalBindingPlan<T> current = plan;
+            if (current == null || !current.matches(cols)) {
+                current = processor.resolveBindingPlan(tableKey, clz, cols, null);
+                plan = current;
+            }
+            int keyIndex = findKeyIndex(metaData, count);
+            long last = 0;
+            while (rs.next()) {
+                try {
+                    page.add(processor.convertRow(rs, current));
+                } catch (IllegalAccessException | InstantiationException e) {
+                    throw new IllegalStateException("convert " + tableKey + " failed.", e);
+                }
+                last = rs.getLong(keyIndex);
+            }
+            return last;
+        }
+
+        private int findKeyIndex(ResultSetMetaData metaData, int count) throws SQLException {
+            for (int i = 1; i <= count; i++) {
+                if (keyColumn.equalsIgnoreCase(metaData.getColumnLabel(i))) {
+                    return i;
+                }
+            }
+            throw new SQLException("key column " + keyColumn + " not found.");
+        }
+    }
+}
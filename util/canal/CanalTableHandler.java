@@ -0,0 +1,47 @@
+import com.alibaba.otter.canal.protocol.CanalEntry;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标注AbstractCanalLogMsgProcessor子类中处理某张表变更的方法，启动时注册为订阅，processEntries按库、表、事件类型直接路由到该方法
+ * <p>
+ * 方法参数为 (List&lt;RowDataPair&lt;beanClass&gt;&gt; changes) 或 (CanalEntry.Entry entry, List&lt;RowDataPair&lt;beanClass&gt;&gt; changes)
+ * </p>
+ * <pre>
+ *     &#64;CanalTableHandler(schema = "db", table = "t_order", beanClass = Order.class)
+ *     private void onOrderChanged(List&lt;RowDataPair&lt;Order&gt;&gt; changes) {
+ *     }
+ * </pre>
+ */
+@Target({ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface CanalTableHandler {
+    /**
+     * 库名
+     * @return
+     */
+    String schema();
+
+    /**
+     * 表名
+     * @return
+     */
+    String table();
+
+    /**
+     * 处理的事件类型，为空时处理INSERT、UPDATE、DELETE
+     * @return
+     */
+    CanalEntry.EventType[] eventTypes() default {};
+
+    /**
+     * 行数据转换的bean类型
+     * @return
+     */
+    Class<?> beanClass();
+}
@@ -0,0 +1,324 @@
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 大事务缓冲：缓存一个事务内的原始行数据（RowData序列化后的字节），超过行数或字节数阈值后写入临时文件，
+ * 回放时按缓存顺序读取一遍，所有表的行按binlog中的原始顺序回调
+ * <p>
+ * 内存占用上限约为maxMemoryBytes，与事务大小无关；回放时同表同事件类型的连续行每次最多组装CHUNK_ROWS行为一个RowChange，
+ * 临时文件通过复用的堆缓冲顺序读取，不做内存映射（映射区域在GC前不会释放，删除文件后仍占用地址空间）。
+ * 非线程安全，一个事务结束（回放完成）后调用clear()删除临时文件，可继续用于下一个事务
+ * </p>
+ * <pre>
+ *     if (entry.getEntryType() == CanalEntry.EntryType.TRANSACTIONEND) {
+ *         buffer.replay((table, rowChange) -> {
+ *             if ("user".equals(table.getHeader().getTableName())) {
+ *                 processor.forEachChange(table, rowChange, User.class, pair -> ...);
+ *             }
+ *         });
+ *         buffer.clear();
+ *     } else {
+ *         buffer.add(entry);
+ *     }
+ * </pre>
+ */
+public class CanalTransactionBuffer implements Closeable {
+    /**
+     * 回放时每个RowChange最多包含的行数
+     */
+    private static final int CHUNK_ROWS = 256;
+    /**
+     * 写入临时文件后的写缓冲大小，回放临时文件时的读缓冲大小
+     */
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+    /**
+     * 每条记录的头：表下标(int) + 事件类型(byte) + 行数据长度(int)
+     */
+    private static final int RECORD_HEADER_SIZE = 9;
+    private static final CanalEntry.EventType[] EVENT_TYPES = CanalEntry.EventType.values();
+
+    private final AbstractCanalLogMsgProcessor processor;
+    private final long maxMemoryRows;
+    private final long maxMemoryBytes;
+    private final Path spillDir;
+    /**
+     * 表 -> 下标，下标对应tables中只有Header的entry，用于回放时区分表
+     */
+    private final Map<String, Integer> tableIndexes = new HashMap<>();
+    private final List<CanalEntry.Entry> tables = new ArrayList<>();
+    private ByteBuffer buffer = ByteBuffer.allocate(4096);
+    private long rowCount;
+    private Path spillFile;
+    private FileChannel channel;
+
+    /**
+     * @param processor      用于转换行数据
+     * @param maxMemoryRows  内存中最多缓存的行数
+     * @param maxMemoryBytes 内存中最多缓存的字节数
+     * @param spillDir       临时文件目录，为null时使用系统临时目录
+     */
+    public CanalTransactionBuffer(AbstractCanalLogMsgProcessor processor, long maxMemoryRows, long maxMemoryBytes, Path spillDir) {
+        if (processor == null || maxMemoryRows <= 0 || maxMemoryBytes <= 0) {
+            throw new IllegalArgumentException("processor can't be null, maxMemoryRows and maxMemoryBytes must be positive.");
+        }
+        this.processor = processor;
+        this.maxMemoryRows = maxMemoryRows;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.spillDir = spillDir;
+    }
+
+    /**
+     * 缓存一条canal消息的行数据，只处理行数据（非DDL）的INSERT、UPDATE、DELETE，DDL使对应表的绑定计划失效
+     *
+     * @param entry
+     * @throws InvalidProtocolBufferException
+     * @throws IOException 写入临时文件失败
+     */
+    public void add(CanalEntry.Entry entry) throws IOException {
+        if (entry.getEntryType() == CanalEntry.EntryType.ROWDATA) {
+            add(entry, CanalEntry.RowChange.parseFrom(entry.getStoreValue()));
+        }
+    }
+
+    /**
+     * 缓存一个RowChange中的行
+     *
+     * @param entry     不能为null，用于区分表
+     * @param rowChange
+     * @throws IOException 写入临时文件失败
+     */
+    public void add(CanalEntry.Entry entry, CanalEntry.RowChange rowChange) throws IOException {
+        CanalEntry.EventType eventType = rowChange.getEventType();
+        if (!CanalRowKeys.isDml(eventType)) {
+            processor.handleDdl(entry, rowChange);
+            return;
+        }
+        int table = getTableIndex(entry.getHeader());
+        for (CanalEntry.RowData rowData : rowChange.getRowDatasList()) {
+            append(table, eventType, rowData.toByteArray());
+            rowCount++;
+        }
+        if (channel == null && (rowCount > maxMemoryRows || buffer.position() > maxMemoryBytes)) {
+            spill();
+        }
+    }
+
+    /**
+     * 按缓存顺序回放所有表的行：同表同事件类型的连续行组装为RowChange回调，跨表的先后顺序与原事务一致
+     * <p>
+     * handler收到的entry只有Header（库名、表名、事件类型），可直接传给forEachChange等方法按表转换
+     * </p>
+     *
+     * @param handler 按原始顺序回调
+     * @throws IOException 读取临时文件失败
+     * @throws Exception   handler抛出的异常
+     */
+    public void replay(AbstractCanalLogMsgProcessor.RowChangeHandler handler) throws Exception {
+        if (handler == null) {
+            throw new IllegalArgumentException("handler can't be null.");
+        }
+        Replayer replayer = new Replayer(handler);
+        if (channel == null) {
+            ByteBuffer records = buffer.duplicate();
+            records.flip();
+            replayer.read(records);
+        } else {
+            flushBuffer();
+            // 写缓冲已清空，回放期间用作读缓冲
+            ByteBuffer records = buffer;
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                int read = channel.read(records, position);
+                if (read < 0) {
+                    break;
+                }
+                position += read;
+                records.flip();
+                replayer.read(records);
+                records.compact();
+                if (!records.hasRemaining()) {
+                    // 单条记录超过缓冲大小，按记录长度扩容
+                    ByteBuffer grown = ByteBuffer.allocate(RECORD_HEADER_SIZE + records.getInt(5));
+                    records.flip();
+                    grown.put(records);
+                    records = grown;
+                }
+            }
+            buffer.clear();
+        }
+        replayer.flush();
+    }
+
+    /**
+     * @return 缓存的行数
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return 是否已写入临时文件
+     */
+    public boolean isSpilled() {
+        return channel != null;
+    }
+
+    /**
+     * 清空缓存的行数据并删除临时文件
+     *
+     * @throws IOException
+     */
+    public void clear() throws IOException {
+        tableIndexes.clear();
+        tables.clear();
+        rowCount = 0;
+        buffer = ByteBuffer.allocate(4096);
+        if (channel != null) {
+            channel.close();
+            channel = null;
+            Files.deleteIfExists(spillFile);
+            spillFile = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        clear();
+    }
+
+    private int getTableIndex(CanalEntry.Header header) {
+        String tableKey = header.getSchemaName() + "." + header.getTableName();
+        Integer index = tableIndexes.get(tableKey);
+        if (index == null) {
+            index = tables.size();
+            tables.add(CanalEntry.Entry.newBuilder()
+                    .setEntryType(CanalEntry.EntryType.ROWDATA)
+                    .setHeader(CanalEntry.Header.newBuilder()
+                            .setSchemaName(header.getSchemaName())
+                            .setTableName(header.getTableName())
+                            .build())
+                    .build());
+            tableIndexes.put(tableKey, index);
+        }
+        return index;
+    }
+
+    private void append(int table, CanalEntry.EventType eventType, byte[] rowData) throws IOException {
+        int size = RECORD_HEADER_SIZE + rowData.length;
+        if (buffer.remaining() < size) {
+            if (channel == null) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + size));
+                buffer.flip();
+                grown.put(buffer);
+                buffer = grown;
+            } else {
+                flushBuffer();
+                if (buffer.remaining() < size) {
+                    ByteBuffer record = ByteBuffer.allocate(size);
+                    writeRecord(record, table, eventType, rowData);
+                    record.flip();
+                    writeFully(record);
+                    return;
+                }
+            }
+        }
+        writeRecord(buffer, table, eventType, rowData);
+    }
+
+    private static void writeRecord(ByteBuffer target, int table, CanalEntry.EventType eventType, byte[] rowData) {
+        target.putInt(table).put((byte) eventType.ordinal()).putInt(rowData.length).put(rowData);
+    }
+
+    /**
+     * 将内存中的行数据写入临时文件，之后的行经写缓冲追加到文件
+     */
+    private void spill() throws IOException {
+        spillFile = spillDir == null ? Files.createTempFile("canal-tx-", ".spill") : Files.createTempFile(spillDir, "canal-tx-", ".spill");
+        channel = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        flushBuffer();
+        if (buffer.capacity() > WRITE_BUFFER_SIZE) {
+            buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            channel.write(source, channel.size());
+        }
+    }
+
+    /**
+     * 读取记录，同表同事件类型的连续行组装为RowChange后回调
+     */
+    private class Replayer {
+        private final AbstractCanalLogMsgProcessor.RowChangeHandler handler;
+        private CanalEntry.RowChange.Builder chunk;
+        private int chunkTable = -1;
+        private CanalEntry.EventType chunkEventType;
+        private int chunkRows;
+
+        Replayer(AbstractCanalLogMsgProcessor.RowChangeHandler handler) {
+            this.handler = handler;
+        }
+
+        /**
+         * 读取完整的记录，不完整的记录留在records中，下次读取
+         */
+        void read(ByteBuffer records) throws Exception {
+            while (records.remaining() >= RECORD_HEADER_SIZE) {
+                int position = records.position();
+                int table = records.getInt(position);
+                CanalEntry.EventType eventType = EVENT_TYPES[records.get(position + 4)];
+                int length = records.getInt(position + 5);
+                if (records.remaining() < RECORD_HEADER_SIZE + length) {
+                    return;
+                }
+                if (table != chunkTable || eventType != chunkEventType || chunkRows >= CHUNK_ROWS) {
+                    flush();
+                    chunkTable = table;
+                    chunkEventType = eventType;
+                    chunk = CanalEntry.RowChange.newBuilder().setEventType(eventType);
+                }
+                // 读写缓冲均为堆缓冲，直接从数组解析，不复制行数据
+                chunk.addRowDatas(CanalEntry.RowData.parseFrom(CodedInputStream.newInstance(
+                        records.array(), records.arrayOffset() + position + RECORD_HEADER_SIZE, length)));
+                chunkRows++;
+                records.position(position + RECORD_HEADER_SIZE + length);
+            }
+        }
+
+        void flush() throws Exception {
+            if (chunk == null) {
+                return;
+            }
+            CanalEntry.Entry table = tables.get(chunkTable);
+            CanalEntry.Entry entry = table.toBuilder()
+                    .setHeader(table.getHeader().toBuilder().setEventType(chunkEventType))
+                    .build();
+            CanalEntry.RowChange rowChange = chunk.build();
+            chunk = null;
+            chunkRows = 0;
+            handler.handle(entry, rowChange);
+        }
+    }
+}
@@ -0,0 +1,297 @@
+import com.google.protobuf.ByteString;
+
+import java.time.LocalDateTime;
+
+/**
+ * canal列值解析
+ * 日期只解析canal输出的固定格式：yyyy-MM-dd、yyyy-MM-dd HH:mm:ss、yyyy-MM-dd HH:mm:ss.SSSSSS，逐字符解析，不走SimpleDateFormat
+ * <p>
+ * ByteString参数的方法直接从Column.getValueBytes()的UTF-8字节解析，常见格式不生成String；
+ * 不常见的格式（如科学计数法、超长数字、+号）回退为String解析，结果与String解析一致
+ * </p>
+ */
+final class CanalValueParser {
+    /**
+     * 10^0 ~ 10^22，double可精确表示
+     */
+    private static final double[] DOUBLE_POW10 = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    /**
+     * 10^0 ~ 10^10，float可精确表示
+     */
+    private static final float[] FLOAT_POW10 = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+
+    private CanalValueParser() {
+    }
+
+    /**
+     * 解析日期时间
+     *
+     * @param value
+     * @return 格式不匹配或日期非法（如0000-00-00 00:00:00）时返回null，由调用方回退为通用解析
+     */
+    static LocalDateTime parseLocalDateTime(CharSequence value) {
+        int length = value.length();
+        if (length != 10 && length < 19) {
+            return null;
+        }
+        int year = digits(value, 0, 4);
+        int month = digits(value, 5, 2);
+        int day = digits(value, 8, 2);
+        if (year < 0 || month < 1 || day < 1 || value.charAt(4) != '-' || value.charAt(7) != '-') {
+            return null;
+        }
+        int hour = 0;
+        int minute = 0;
+        int second = 0;
+        int nano = 0;
+        if (length > 10) {
+            char sep = value.charAt(10);
+            if ((sep != ' ' && sep != 'T') || value.charAt(13) != ':' || value.charAt(16) != ':') {
+                return null;
+            }
+            hour = digits(value, 11, 2);
+            minute = digits(value, 14, 2);
+            second = digits(value, 17, 2);
+            if (hour < 0 || minute < 0 || second < 0) {
+                return null;
+            }
+            if (length > 19) {
+                int fractionLength = length - 20;
+                if (value.charAt(19) != '.' || fractionLength < 1 || fractionLength > 9) {
+                    return null;
+                }
+                nano = digits(value, 20, fractionLength);
+                if (nano < 0) {
+                    return null;
+                }
+                for (int i = fractionLength; i < 9; i++) {
+                    nano *= 10;
+                }
+            }
+        }
+        if (month > 12 || day > 31 || hour > 23 || minute > 59 || second > 59) {
+            return null;
+        }
+        try {
+            return LocalDateTime.of(year, month, day, hour, minute, second, nano);
+        } catch (RuntimeException e) {
+            // 如2月30日
+            return null;
+        }
+    }
+
+    /**
+     * 解析布尔值，与spring StringToBooleanConverter规则一致
+     *
+     * @param value
+     * @return
+     */
+    static boolean parseBoolean(String value) {
+        switch (value.toLowerCase()) {
+            case "1":
+            case "true":
+            case "on":
+            case "yes":
+                return true;
+            case "0":
+            case "false":
+            case "off":
+            case "no":
+                return false;
+            default:
+                throw new IllegalArgumentException("Invalid boolean value '" + value + "'");
+        }
+    }
+
+    /**
+     * @return 非数字时返回-1
+     */
+    private static int digits(CharSequence value, int start, int count) {
+        int result = 0;
+        for (int i = start; i < start + count; i++) {
+            int d = value.charAt(i) - '0';
+            if (d < 0 || d > 9) {
+                return -1;
+            }
+            result = result * 10 + d;
+        }
+        return result;
+    }
+
+    /**
+     * 同Integer.parseInt
+     *
+     * @param bytes
+     * @return
+     */
+    static int parseInt(ByteString bytes) {
+        int length = bytes.size();
+        int start = length > 0 && bytes.byteAt(0) == '-' ? 1 : 0;
+        // 9位以内不会溢出
+        if (length == start || length - start > 9) {
+            return Integer.parseInt(bytes.toStringUtf8());
+        }
+        int result = 0;
+        for (int i = start; i < length; i++) {
+            int d = bytes.byteAt(i) - '0';
+            if (d < 0 || d > 9) {
+                return Integer.parseInt(bytes.toStringUtf8());
+            }
+            result = result * 10 + d;
+        }
+        return start == 1 ? -result : result;
+    }
+
+    /**
+     * 同Long.parseLong
+     *
+     * @param bytes
+     * @return
+     */
+    static long parseLong(ByteString bytes) {
+        int length = bytes.size();
+        int start = length > 0 && bytes.byteAt(0) == '-' ? 1 : 0;
+        // 18位以内不会溢出
+        if (length == start || length - start > 18) {
+            return Long.parseLong(bytes.toStringUtf8());
+        }
+        long result = 0;
+        for (int i = start; i < length; i++) {
+            int d = bytes.byteAt(i) - '0';
+            if (d < 0 || d > 9) {
+                return Long.parseLong(bytes.toStringUtf8());
+            }
+            result = result * 10 + d;
+        }
+        return start == 1 ? -result : result;
+    }
+
+    /**
+     * 同Double.parseDouble；有效数字不超过15位、小数不超过22位时，整数除以10的幂即为正确舍入的结果
+     *
+     * @param bytes
+     * @return
+     */
+    static double parseDouble(ByteString bytes) {
+        int length = bytes.size();
+        int start = length > 0 && bytes.byteAt(0) == '-' ? 1 : 0;
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (int i = start; i < length; i++) {
+            byte b = bytes.byteAt(i);
+            if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+                continue;
+            }
+            int d = b - '0';
+            if (d < 0 || d > 9 || ++digits > 15) {
+                return Double.parseDouble(bytes.toStringUtf8());
+            }
+            mantissa = mantissa * 10 + d;
+            if (fractionDigits >= 0) {
+                fractionDigits++;
+            }
+        }
+        if (digits == 0 || fractionDigits > 22) {
+            return Double.parseDouble(bytes.toStringUtf8());
+        }
+        double result = fractionDigits > 0 ? mantissa / DOUBLE_POW10[fractionDigits] : mantissa;
+        return start == 1 ? -result : result;
+    }
+
+    /**
+     * 同Float.parseFloat；有效数字不超过7位、小数不超过10位时，整数除以10的幂即为正确舍入的结果
+     *
+     * @param bytes
+     * @return
+     */
+    static float parseFloat(ByteString bytes) {
+        int length = bytes.size();
+        int start = length > 0 && bytes.byteAt(0) == '-' ? 1 : 0;
+        int mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (int i = start; i < length; i++) {
+            byte b = bytes.byteAt(i);
+            if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+                continue;
+            }
+            int d = b - '0';
+            if (d < 0 || d > 9 || ++digits > 7) {
+                return Float.parseFloat(bytes.toStringUtf8());
+            }
+            mantissa = mantissa * 10 + d;
+            if (fractionDigits >= 0) {
+                fractionDigits++;
+            }
+        }
+        if (digits == 0 || fractionDigits > 10) {
+            return Float.parseFloat(bytes.toStringUtf8());
+        }
+        float result = fractionDigits > 0 ? mantissa / FLOAT_POW10[fractionDigits] : mantissa;
+        return start == 1 ? -result : result;
+    }
+
+    /**
+     * 同parseBoolean(String)，1/0（tinyint、bit）直接判断
+     *
+     * @param bytes
+     * @return
+     */
+    static boolean parseBoolean(ByteString bytes) {
+        if (bytes.size() == 1) {
+            byte b = bytes.byteAt(0);
+            if (b == '1') {
+                return true;
+            }
+            if (b == '0') {
+                return false;
+            }
+        }
+        return parseBoolean(bytes.toStringUtf8());
+    }
+
+    /**
+     * 同parseLocalDateTime(CharSequence)，按ASCII逐字节解析
+     *
+     * @param bytes
+     * @return
+     */
+    static LocalDateTime parseLocalDateTime(ByteString bytes) {
+        return parseLocalDateTime(new AsciiSequence(bytes));
+    }
+
+    /**
+     * ByteString的ASCII字符视图，不复制字节；非ASCII字节不会匹配数字及分隔符
+     */
+    private static final class AsciiSequence implements CharSequence {
+        private final ByteString bytes;
+
+        AsciiSequence(ByteString bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int length() {
+            return bytes.size();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes.byteAt(index) & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return bytes.toStringUtf8();
+        }
+    }
+}
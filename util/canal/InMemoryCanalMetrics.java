@@ -0,0 +1,179 @@
+import com.alibaba.otter.canal.protocol.CanalEntry;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 内存指标，无外部依赖，计数均使用LongAdder，记录时无锁
+ * <p>
+ * 延迟分布按2的幂分桶（第i桶为[2^(i-1), 2^i)纳秒），百分位返回所在桶的上界，精度在2倍以内
+ * </p>
+ */
+public class InMemoryCanalMetrics implements CanalMetrics {
+    private static final int BUCKETS = 64;
+
+    private final ConcurrentHashMap<String, TableMetrics> tables = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Class<?>, LongAdder> conversionFailures = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> unmappedColumns = new ConcurrentHashMap<>();
+    private volatile long startNanos = System.nanoTime();
+
+    @Override
+    public void recordRows(String tableKey, CanalEntry.EventType eventType, int rows, long elapsedNanos) {
+        if (rows <= 0) {
+            return;
+        }
+        EventMetrics metrics = getTableMetrics(tableKey).events[eventType.ordinal()];
+        metrics.rows.add(rows);
+        if (elapsedNanos >= 0) {
+            metrics.elapsedNanos.add(elapsedNanos);
+            // 按平均每行耗时分桶
+            metrics.latency[bucket(elapsedNanos / rows)].increment();
+        }
+    }
+
+    @Override
+    public void recordConversionFailure(Class<?> fieldType) {
+        LongAdder adder = conversionFailures.get(fieldType);
+        if (adder == null) {
+            adder = conversionFailures.computeIfAbsent(fieldType, k -> new LongAdder());
+        }
+        adder.increment();
+    }
+
+    @Override
+    public void recordUnmappedColumns(String tableKey, long count) {
+        if (count <= 0) {
+            return;
+        }
+        LongAdder adder = unmappedColumns.get(tableKey);
+        if (adder == null) {
+            adder = unmappedColumns.computeIfAbsent(tableKey, k -> new LongAdder());
+        }
+        adder.add(count);
+    }
+
+    /**
+     * @return 累计转换行数
+     */
+    public long getRows(String tableKey, CanalEntry.EventType eventType) {
+        TableMetrics metrics = tables.get(tableKey);
+        return metrics == null ? 0 : metrics.events[eventType.ordinal()].rows.sum();
+    }
+
+    /**
+     * @return 自创建或reset以来平均每秒转换行数
+     */
+    public double getRowsPerSecond(String tableKey, CanalEntry.EventType eventType) {
+        long elapsed = System.nanoTime() - startNanos;
+        return elapsed <= 0 ? 0 : getRows(tableKey, eventType) * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+
+    /**
+     * @return 累计转换耗时，纳秒
+     */
+    public long getElapsedNanos(String tableKey, CanalEntry.EventType eventType) {
+        TableMetrics metrics = tables.get(tableKey);
+        return metrics == null ? 0 : metrics.events[eventType.ordinal()].elapsedNanos.sum();
+    }
+
+    /**
+     * 平均每行转换耗时的百分位
+     *
+     * @param percentile 0~100，如99表示p99
+     * @return 纳秒，没有数据时为0
+     */
+    public long getLatencyPercentile(String tableKey, CanalEntry.EventType eventType, double percentile) {
+        TableMetrics metrics = tables.get(tableKey);
+        if (metrics == null) {
+            return 0;
+        }
+        LongAdder[] latency = metrics.events[eventType.ordinal()].latency;
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = latency[i].sum();
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0) {
+                return i >= 63 ? Long.MAX_VALUE : 1L << i;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * @return 属性类型 -> 转换失败次数
+     */
+    public Map<Class<?>, Long> getConversionFailures() {
+        return snapshot(conversionFailures);
+    }
+
+    /**
+     * @return schemaName.tableName -> 跳过的单元格数
+     */
+    public Map<String, Long> getUnmappedColumns() {
+        return snapshot(unmappedColumns);
+    }
+
+    /**
+     * 清空所有指标，并重新开始计算每秒行数
+     */
+    public void reset() {
+        tables.clear();
+        conversionFailures.clear();
+        unmappedColumns.clear();
+        startNanos = System.nanoTime();
+    }
+
+    private TableMetrics getTableMetrics(String tableKey) {
+        TableMetrics metrics = tables.get(tableKey);
+        if (metrics == null) {
+            metrics = tables.computeIfAbsent(tableKey, k -> new TableMetrics());
+        }
+        return metrics;
+    }
+
+    private static int bucket(long nanos) {
+        return nanos <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+    }
+
+    private static <K> Map<K, Long> snapshot(Map<K, LongAdder> adders) {
+        Map<K, Long> result = new HashMap<>();
+        adders.forEach((k, v) -> result.put(k, v.sum()));
+        return Collections.unmodifiableMap(result);
+    }
+
+    private static class TableMetrics {
+        private final EventMetrics[] events;
+
+        TableMetrics() {
+            events = new EventMetrics[CanalEntry.EventType.values().length];
+            for (int i = 0; i < events.length; i++) {
+                events[i] = new EventMetrics();
+            }
+        }
+    }
+
+    private static class EventMetrics {
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder elapsedNanos = new LongAdder();
+        private final LongAdder[] latency = new LongAdder[BUCKETS];
+
+        EventMetrics() {
+            for (int i = 0; i < BUCKETS; i++) {
+                latency[i] = new LongAdder();
+            }
+        }
+    }
+}
@@ -0,0 +1,434 @@
+import com.alibaba.otter.canal.protocol.CanalEntry;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.tqmall.lsc.common.tools.DateUtils;
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.lang.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.core.convert.support.DefaultConversionService;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.sql.Types;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * canal行数据转换的JMH基准，数据在内存中合成，不依赖canal server
+ * <p>
+ * 每个RowChange为UPDATE，before/after各columns列，列类型按int、long、String、Date、BigDecimal、double、boolean、Integer（每10行一个null）循环；
+ * legacy*为最初的反射实现（Field.set + DefaultConversionService，见LegacyReflectiveConverter），作为对照基线。
+ * 随机数种子固定，结果可离线复现；main方法默认启用GC profiler输出分配速率。
+ * 与本目录一起编译，依赖org.openjdk.jmh:jmh-core:1.37，注解处理器org.openjdk.jmh:jmh-generator-annprocess:1.37
+ * </p>
+ * <pre>
+ *     java -cp ... CanalConversionBenchmark
+ *     java -jar benchmarks.jar CanalConversionBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class CanalConversionBenchmark {
+    private static final int[] SQL_TYPES = {Types.INTEGER, Types.BIGINT, Types.VARCHAR, Types.TIMESTAMP,
+            Types.DECIMAL, Types.DOUBLE, Types.BIT, Types.INTEGER};
+
+    @Param({"5", "40", "150"})
+    private int columns;
+
+    @Param({"1", "100", "10000"})
+    private int rows;
+
+    private AbstractCanalLogMsgProcessor processor;
+    private LegacyReflectiveConverter legacy;
+    private CanalColumnarDecoder decoder;
+    private CanalEntry.Entry entry;
+    private CanalEntry.RowChange rowChange;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        processor = new AbstractCanalLogMsgProcessor() {
+        };
+        legacy = new LegacyReflectiveConverter();
+        decoder = new CanalColumnarDecoder(processor);
+        rowChange = createRowChange(columns, rows, new Random(20240101L));
+        entry = CanalEntry.Entry.newBuilder()
+                .setEntryType(CanalEntry.EntryType.ROWDATA)
+                .setHeader(CanalEntry.Header.newBuilder()
+                        .setSchemaName("bench")
+                        .setTableName("wide_row_" + columns)
+                        .setEventType(CanalEntry.EventType.UPDATE)
+                        .setLogfileName("mysql-bin.000001")
+                        .setLogfileOffset(4)
+                        .build())
+                .setStoreValue(rowChange.toByteString())
+                .build();
+    }
+
+    @Benchmark
+    public List<AbstractCanalLogMsgProcessor.RowDataPair<WideRow>> legacyGetChanges() throws Exception {
+        return legacy.getChanges(rowChange, WideRow.class);
+    }
+
+    @Benchmark
+    public List<WideRow> legacyGetChangesAfter() throws Exception {
+        return legacy.getChangesAfter(rowChange, WideRow.class);
+    }
+
+    @Benchmark
+    public List<AbstractCanalLogMsgProcessor.RowDataPair<WideRow>> getChanges() throws Exception {
+        return processor.getChanges(entry, rowChange, WideRow.class);
+    }
+
+    @Benchmark
+    public List<WideRow> getChangesAfter() throws Exception {
+        return processor.getChangesAfter(entry, rowChange, WideRow.class);
+    }
+
+    @Benchmark
+    public void streamChangesAfter(Blackhole blackhole) {
+        processor.streamChanges(entry, rowChange, WideRow.class).forEach(pair -> blackhole.consume(pair.getAfter()));
+    }
+
+    @Benchmark
+    public void forEachChangeReusing(Blackhole blackhole) {
+        processor.forEachChangeReusing(entry, rowChange, WideRow.class, pair -> blackhole.consume(pair.getAfter()));
+    }
+
+    @Benchmark
+    public CanalColumnarBatch columnarDecode() {
+        return decoder.decode(entry, rowChange, WideRow.class);
+    }
+
+    @Benchmark
+    public CanalEntry.RowChange parseAndGetChangesAfter(Blackhole blackhole) throws Exception {
+        CanalEntry.RowChange parsed = CanalEntry.RowChange.parseFrom(entry.getStoreValue());
+        blackhole.consume(processor.getChangesAfter(entry, parsed, WideRow.class));
+        return parsed;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(CanalConversionBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+
+    static CanalEntry.RowChange createRowChange(int columns, int rows, Random random) {
+        CanalEntry.RowChange.Builder builder = CanalEntry.RowChange.newBuilder().setEventType(CanalEntry.EventType.UPDATE);
+        for (int row = 0; row < rows; row++) {
+            CanalEntry.RowData.Builder rowData = CanalEntry.RowData.newBuilder();
+            for (int i = 0; i < columns; i++) {
+                rowData.addBeforeColumns(createColumn(i, row, random));
+                rowData.addAfterColumns(createColumn(i, row, random));
+            }
+            builder.addRowDatas(rowData.build());
+        }
+        return builder.build();
+    }
+
+    private static CanalEntry.Column createColumn(int index, int row, Random random) {
+        int sqlType = SQL_TYPES[index % SQL_TYPES.length];
+        boolean isNull = index % SQL_TYPES.length == 7 && row % 10 == 0;
+        String value;
+        switch (sqlType) {
+            case Types.INTEGER:
+                value = String.valueOf(random.nextInt(1_000_000));
+                break;
+            case Types.BIGINT:
+                value = String.valueOf(random.nextLong() & Long.MAX_VALUE);
+                break;
+            case Types.TIMESTAMP:
+                value = String.format("20%02d-%02d-%02d %02d:%02d:%02d", random.nextInt(30), 1 + random.nextInt(12),
+                        1 + random.nextInt(28), random.nextInt(24), random.nextInt(60), random.nextInt(60));
+                break;
+            case Types.DECIMAL:
+                value = random.nextInt(100_000) + "." + String.format("%02d", random.nextInt(100));
+                break;
+            case Types.DOUBLE:
+                value = String.valueOf(random.nextDouble() * 1000);
+                break;
+            case Types.BIT:
+                value = random.nextBoolean() ? "1" : "0";
+                break;
+            default:
+                value = Long.toHexString(random.nextLong()) + "-" + row;
+                break;
+        }
+        return CanalEntry.Column.newBuilder()
+                .setIndex(index)
+                .setName(index == 0 ? "c0" : "c_" + index)
+                .setSqlType(sqlType)
+                .setIsKey(index == 0)
+                .setUpdated(index % 3 == 0)
+                .setIsNull(isNull)
+                .setValue(isNull ? "" : value)
+                .build();
+    }
+
+    /**
+     * 150个属性，列名c_1等去除下划线后对应属性c1
+     */
+    public static class WideRow {
+        private int c0;
+        private long c1;
+        private String c2;
+        private Date c3;
+        private BigDecimal c4;
+        private double c5;
+        private boolean c6;
+        private Integer c7;
+        private int c8;
+        private long c9;
+        private String c10;
+        private Date c11;
+        private BigDecimal c12;
+        private double c13;
+        private boolean c14;
+        private Integer c15;
+        private int c16;
+        private long c17;
+        private String c18;
+        private Date c19;
+        private BigDecimal c20;
+        private double c21;
+        private boolean c22;
+        private Integer c23;
+        private int c24;
+        private long c25;
+        private String c26;
+        private Date c27;
+        private BigDecimal c28;
+        private double c29;
+        private boolean c30;
+        private Integer c31;
+        private int c32;
+        private long c33;
+        private String c34;
+        private Date c35;
+        private BigDecimal c36;
+        private double c37;
+        private boolean c38;
+        private Integer c39;
+        private int c40;
+        private long c41;
+        private String c42;
+        private Date c43;
+        private BigDecimal c44;
+        private double c45;
+        private boolean c46;
+        private Integer c47;
+        private int c48;
+        private long c49;
+        private String c50;
+        private Date c51;
+        private BigDecimal c52;
+        private double c53;
+        private boolean c54;
+        private Integer c55;
+        private int c56;
+        private long c57;
+        private String c58;
+        private Date c59;
+        private BigDecimal c60;
+        private double c61;
+        private boolean c62;
+        private Integer c63;
+        private int c64;
+        private long c65;
+        private String c66;
+        private Date c67;
+        private BigDecimal c68;
+        private double c69;
+        private boolean c70;
+        private Integer c71;
+        private int c72;
+        private long c73;
+        private String c74;
+        private Date c75;
+        private BigDecimal c76;
+        private double c77;
+        private boolean c78;
+        private Integer c79;
+        private int c80;
+        private long c81;
+        private String c82;
+        private Date c83;
+        private BigDecimal c84;
+        private double c85;
+        private boolean c86;
+        private Integer c87;
+        private int c88;
+        private long c89;
+        private String c90;
+        private Date c91;
+        private BigDecimal c92;
+        private double c93;
+        private boolean c94;
+        private Integer c95;
+        private int c96;
+        private long c97;
+        private String c98;
+        private Date c99;
+        private BigDecimal c100;
+        private double c101;
+        private boolean c102;
+        private Integer c103;
+        private int c104;
+        private long c105;
+        private String c106;
+        private Date c107;
+        private BigDecimal c108;
+        private double c109;
+        private boolean c110;
+        private Integer c111;
+        private int c112;
+        private long c113;
+        private String c114;
+        private Date c115;
+        private BigDecimal c116;
+        private double c117;
+        private boolean c118;
+        private Integer c119;
+        private int c120;
+        private long c121;
+        private String c122;
+        private Date c123;
+        private BigDecimal c124;
+        private double c125;
+        private boolean c126;
+        private Integer c127;
+        private int c128;
+        private long c129;
+        private String c130;
+        private Date c131;
+        private BigDecimal c132;
+        private double c133;
+        private boolean c134;
+        private Integer c135;
+        private int c136;
+        private long c137;
+        private String c138;
+        private Date c139;
+        private BigDecimal c140;
+        private double c141;
+        private boolean c142;
+        private Integer c143;
+        private int c144;
+        private long c145;
+        private String c146;
+        private Date c147;
+        private BigDecimal c148;
+        private double c149;
+    }
+
+    /**
+     * 最初的反射转换实现的副本，作为对照基线，不要优化
+     */
+    static class LegacyReflectiveConverter {
+        private DefaultConversionService conversionService = new DefaultConversionService() {
+            {
+                addConverter(new Converter<String, Date>() {
+                    @Override
+                    public Date convert(String source) {
+                        if (StringUtils.isBlank(source)) {
+                            return null;
+                        }
+                        return DateUtils.convertStringToDate(source);
+                    }
+                });
+            }
+        };
+
+        private ConcurrentHashMap<String, Map<String, Field>> cachedClzFields = new ConcurrentHashMap<>();
+
+        <T> List<AbstractCanalLogMsgProcessor.RowDataPair<T>> getChanges(CanalEntry.RowChange rowChange, Class<T> clz) throws InstantiationException, IllegalAccessException {
+            Map<String, Field> beanFields = getClzFields(clz);
+            List<AbstractCanalLogMsgProcessor.RowDataPair<T>> result = Lists.newArrayList();
+            for (CanalEntry.RowData rowData : rowChange.getRowDatasList()) {
+                T dataBefore = convertRowData(rowData.getBeforeColumnsList(), beanFields, clz);
+                T dataAfter = convertRowData(rowData.getAfterColumnsList(), beanFields, clz);
+                result.add(new AbstractCanalLogMsgProcessor.RowDataPair<>(dataBefore, dataAfter));
+            }
+            return result;
+        }
+
+        <T> List<T> getChangesAfter(CanalEntry.RowChange rowChange, Class<T> clz) throws InstantiationException, IllegalAccessException {
+            Map<String, Field> beanFields = getClzFields(clz);
+            List<T> result = Lists.newArrayList();
+            for (CanalEntry.RowData rowData : rowChange.getRowDatasList()) {
+                result.add(convertRowData(rowData.getAfterColumnsList(), beanFields, clz));
+            }
+            return result;
+        }
+
+        private <T> Map<String, Field> getClzFields(Class<T> clz) {
+            Map<String, Field> beanFields = cachedClzFields.get(clz.getName());
+            if (beanFields == null || beanFields.size() <= 0) {
+                beanFields = getAllFieldsForBean(clz);
+                cachedClzFields.putIfAbsent(clz.getName(), beanFields);
+                beanFields = cachedClzFields.get(clz.getName());
+            }
+            return beanFields;
+        }
+
+        private <T> T convertRowData(List<CanalEntry.Column> cols, Map<String, Field> beanFields, Class<T> clz) throws IllegalAccessException, InstantiationException {
+            if (CollectionUtils.isEmpty(cols)) {
+                return null;
+            }
+            T bean = clz.newInstance();
+            for (CanalEntry.Column col : cols) {
+                String name = col.getName().toLowerCase().replace("_", "");
+                String value = col.getValue();
+                Field field = beanFields.get(name);
+                if (field == null) {
+                    continue;
+                }
+                field.set(bean, value == null ? null : conversionService.convert(value, field.getType()));
+            }
+            return bean;
+        }
+
+        private <T> Map<String, Field> getAllFieldsForBean(Class<T> clz) {
+            Map<String, Field> result = Maps.newHashMap();
+            Class tmpClz = clz;
+            String finalParent = "java.lang.object";
+            while (tmpClz != null && !tmpClz.getName().toLowerCase().equals(finalParent)) {
+                for (Field field : tmpClz.getDeclaredFields()) {
+                    field.setAccessible(true);
+                    int modifiers = field.getModifiers();
+                    if (modifiers == Modifier.PUBLIC || modifiers == Modifier.PRIVATE || modifiers == Modifier.PROTECTED) {
+                        result.put(field.getName().toLowerCase(), field);
+                    }
+                }
+                tmpClz = tmpClz.getSuperclass();
+            }
+            return result;
+        }
+    }
+}
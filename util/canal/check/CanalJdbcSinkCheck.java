@@ -0,0 +1,256 @@
+import com.alibaba.otter.canal.protocol.CanalEntry;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * CanalJdbcSink在H2（内存库）和SQLite（临时文件）上的可运行检查，消息在内存中合成，不依赖canal server
+ * <p>
+ * 覆盖：跨批次的事务、多行upsert/delete、修改主键的UPDATE、null列、保留字列名、失败回滚（回滚异常作为suppressed附加）、
+ * 没有事务边界时按批提交。任一检查失败时抛出IllegalStateException。
+ * 与上级目录一起编译，运行时需要com.h2database:h2，classpath中有org.xerial:sqlite-jdbc时同时检查SQLite
+ * </p>
+ * <pre>
+ *     java -cp ... CanalJdbcSinkCheck
+ * </pre>
+ */
+public class CanalJdbcSinkCheck {
+    private long offset = 4;
+
+    public static class User {
+        private Long id;
+        private String name;
+        private Integer age;
+        /**
+         * 保留字列名
+         */
+        private String key;
+        /**
+         * 不转换的属性，目标表没有该列
+         */
+        final String ignored = "ignored";
+    }
+
+    public static void main(String[] args) throws Exception {
+        new CanalJdbcSinkCheck().run(CanalJdbcSink.Dialect.H2, "jdbc:h2:mem:canal_sink_check;DB_CLOSE_DELAY=-1", "\"KEY\"");
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException e) {
+            System.out.println("sqlite-jdbc not found, SQLite skipped");
+            return;
+        }
+        File file = File.createTempFile("canal_sink_check", ".db");
+        file.deleteOnExit();
+        new CanalJdbcSinkCheck().run(CanalJdbcSink.Dialect.SQLITE, "jdbc:sqlite:" + file.getAbsolutePath(), "\"key\"");
+    }
+
+    private void run(CanalJdbcSink.Dialect dialect, String url, String keyColumn) throws Exception {
+        System.out.println("== " + dialect);
+        DataSource dataSource = new DriverManagerDataSource(url, false);
+        execute(dataSource, "CREATE TABLE user_copy (id BIGINT PRIMARY KEY, name VARCHAR(64), age INT CHECK (age < 1000), "
+                + keyColumn + " VARCHAR(16))");
+        AbstractCanalLogMsgProcessor processor = new AbstractCanalLogMsgProcessor() {
+        };
+        CanalJdbcSink sink = new CanalJdbcSink(processor, dataSource, dialect, 2, 1000, 60000, 3);
+        sink.register("db", "user", CanalJdbcSink.TableMapping.of(User.class, "user_copy", "id"));
+
+        List<List<CanalEntry.Column>> inserts = new ArrayList<>();
+        for (int i = 1; i <= 7; i++) {
+            inserts.add(row(i, "u" + i, i * 10));
+        }
+        CanalEntry.Header committed = sink.process(Arrays.asList(transaction(CanalEntry.EntryType.TRANSACTIONBEGIN),
+                rows(CanalEntry.EventType.INSERT, null, inserts)));
+        check(committed == null && sink.isInTransaction(), "batch ending inside a transaction is not committed");
+        check(count(dataSource, "") == 0, "uncommitted rows are not visible");
+
+        CanalEntry.Entry end = transaction(CanalEntry.EntryType.TRANSACTIONEND);
+        committed = sink.process(Arrays.asList(
+                rows(CanalEntry.EventType.UPDATE, Arrays.asList(row(2, "u2", 20), row(3, "u3", 30)),
+                        Arrays.asList(row(2, null, null), row(30, "u3", 31))),
+                rows(CanalEntry.EventType.DELETE, Collections.singletonList(row(1, "u1", 10)), null),
+                end));
+        check(!sink.isInTransaction() && committed.getLogfileOffset() == end.getHeader().getLogfileOffset(),
+                "TRANSACTIONEND commits and is returned");
+        check(count(dataSource, "") == 6, "6 rows after insert, update and delete");
+        check(count(dataSource, " WHERE id = 2 AND name IS NULL AND age IS NULL") == 1, "null columns are written as NULL");
+        check(count(dataSource, " WHERE id = 3") == 0 && count(dataSource, " WHERE id = 30 AND age = 31") == 1,
+                "key-changing update removes the old key");
+        check(count(dataSource, " WHERE " + keyColumn + " = 'k30'") == 1, "reserved word column is written");
+
+        Exception failure = null;
+        try {
+            sink.process(Arrays.asList(transaction(CanalEntry.EntryType.TRANSACTIONBEGIN),
+                    rows(CanalEntry.EventType.INSERT, null, Collections.singletonList(row(100, "ok", 1))),
+                    rows(CanalEntry.EventType.INSERT, null, Collections.singletonList(row(101, "bad", 5000))),
+                    transaction(CanalEntry.EntryType.TRANSACTIONEND)));
+        } catch (SQLException e) {
+            failure = e;
+        }
+        check(failure != null && !sink.isInTransaction(), "constraint violation fails the transaction");
+        check(count(dataSource, " WHERE id >= 100") == 0, "failed transaction is rolled back");
+
+        CanalJdbcSink failingRollback = new CanalJdbcSink(processor, new DriverManagerDataSource(url, true), dialect, 1, 1000, 0, 3);
+        failingRollback.register("db", "user", CanalJdbcSink.TableMapping.of(User.class, "user_copy", "id"));
+        failure = null;
+        try {
+            failingRollback.process(Arrays.asList(transaction(CanalEntry.EntryType.TRANSACTIONBEGIN),
+                    rows(CanalEntry.EventType.INSERT, null, Collections.singletonList(row(102, "bad", 5000)))));
+        } catch (SQLException e) {
+            failure = e;
+        }
+        check(failure != null && !failure.getMessage().contains("rollback failed") && failure.getSuppressed().length == 1
+                && failure.getSuppressed()[0].getMessage().contains("rollback failed"), "rollback failure is attached as suppressed");
+
+        CanalJdbcSink noBoundaries = new CanalJdbcSink(processor, dataSource, dialect, 2, 1000, 60000, 3);
+        noBoundaries.register("db", "user", CanalJdbcSink.TableMapping.of(User.class, "user_copy", "id"));
+        CanalEntry.Entry last = rows(CanalEntry.EventType.INSERT, null, Collections.singletonList(row(201, "p", 1)));
+        committed = noBoundaries.process(Arrays.asList(rows(CanalEntry.EventType.INSERT, null, Collections.singletonList(row(200, "p", 1))), last));
+        check(!noBoundaries.isInTransaction() && committed.getLogfileOffset() == last.getHeader().getLogfileOffset()
+                && count(dataSource, " WHERE id >= 200") == 2, "batch without transaction boundaries is committed");
+    }
+
+    private static List<CanalEntry.Column> row(long id, String name, Integer age) {
+        return Arrays.asList(column(0, "id", Types.BIGINT, String.valueOf(id), true),
+                column(1, "name", Types.VARCHAR, name, false),
+                column(2, "age", Types.INTEGER, age == null ? null : age.toString(), false),
+                column(3, "key", Types.VARCHAR, "k" + id, false));
+    }
+
+    private static CanalEntry.Column column(int index, String name, int sqlType, String value, boolean key) {
+        CanalEntry.Column.Builder builder = CanalEntry.Column.newBuilder().setIndex(index).setName(name).setSqlType(sqlType)
+                .setIsKey(key).setUpdated(true);
+        return value == null ? builder.setIsNull(true).build() : builder.setValue(value).build();
+    }
+
+    private CanalEntry.Header header() {
+        return CanalEntry.Header.newBuilder().setServerId(1).setLogfileName("mysql-bin.000001").setLogfileOffset(offset++)
+                .setSchemaName("db").setTableName("user").build();
+    }
+
+    private CanalEntry.Entry transaction(CanalEntry.EntryType type) {
+        return CanalEntry.Entry.newBuilder().setHeader(header()).setEntryType(type).build();
+    }
+
+    private CanalEntry.Entry rows(CanalEntry.EventType type, List<List<CanalEntry.Column>> before, List<List<CanalEntry.Column>> after) {
+        CanalEntry.RowChange.Builder rowChange = CanalEntry.RowChange.newBuilder().setEventType(type);
+        int size = before != null ? before.size() : after.size();
+        for (int i = 0; i < size; i++) {
+            CanalEntry.RowData.Builder rowData = CanalEntry.RowData.newBuilder();
+            if (before != null) {
+                rowData.addAllBeforeColumns(before.get(i));
+            }
+            if (after != null) {
+                rowData.addAllAfterColumns(after.get(i));
+            }
+            rowChange.addRowDatas(rowData);
+        }
+        return CanalEntry.Entry.newBuilder().setHeader(header()).setEntryType(CanalEntry.EntryType.ROWDATA)
+                .setStoreValue(rowChange.build().toByteString()).build();
+    }
+
+    private static long count(DataSource dataSource, String where) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM user_copy" + where)) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+
+    private static void execute(DataSource dataSource, String sql) throws SQLException {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    private static void check(boolean passed, String message) {
+        if (!passed) {
+            throw new IllegalStateException("check failed: " + message);
+        }
+        System.out.println("ok  " + message);
+    }
+
+    /**
+     * 每次getConnection新建连接；failRollback为true时连接的rollback先回滚再抛出SQLException
+     */
+    private static final class DriverManagerDataSource implements DataSource {
+        private final String url;
+        private final boolean failRollback;
+
+        DriverManagerDataSource(String url, boolean failRollback) {
+            this.url = url;
+            this.failRollback = failRollback;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            Connection connection = DriverManager.getConnection(url);
+            if (!failRollback) {
+                return connection;
+            }
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                try {
+                    Object result = method.invoke(connection, args);
+                    if (method.getName().equals("rollback") && method.getParameterCount() == 0) {
+                        throw new SQLException("rollback failed");
+                    }
+                    return result;
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            });
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            return getConnection();
+        }
+
+        @Override
+        public PrintWriter getLogWriter() {
+            return null;
+        }
+
+        @Override
+        public void setLogWriter(PrintWriter out) {
+        }
+
+        @Override
+        public void setLoginTimeout(int seconds) {
+        }
+
+        @Override
+        public int getLoginTimeout() {
+            return 0;
+        }
+
+        @Override
+        public Logger getParentLogger() {
+            return Logger.getGlobal();
+        }
+
+        @Override
+        public <T> T unwrap(Class<T> iface) throws SQLException {
+            throw new SQLException("not a wrapper");
+        }
+
+        @Override
+        public boolean isWrapperFor(Class<?> iface) {
+            return false;
+        }
+    }
+}